@@ -0,0 +1,76 @@
+package model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Four threads editing one shared document against each thread editing its own document,
+ * with and without the edit sequencer. Edits are made from the version the thread has seen,
+ * so under contention they are transformed against the edits of the other threads.
+ *
+ * The whole change log is retained, a thread can wait for the monitor while more than a thousand edits are merged.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContentionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedDocument {
+
+        @Param({"false", "true"})
+        public boolean sequencer;
+
+        private Processor processor;
+        private PlainTextDocument document;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            processor = new Processor(sequencer, 64);
+            document = createDocument();
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class OwnDocument {
+
+        private PlainTextDocument document;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            document = createDocument();
+        }
+
+    }
+
+    @Benchmark
+    public List<Change> oneDocument(SharedDocument shared) throws EditValidationException {
+        return edit(shared.processor, shared.document);
+    }
+
+    @Benchmark
+    public List<Change> manyDocuments(SharedDocument shared, OwnDocument own) throws EditValidationException {
+        return edit(shared.processor, own.document);
+    }
+
+    private static PlainTextDocument createDocument() {
+        PlainTextDocument document = new PlainTextDocument(1, "Benchmark");
+        document.addChange(new ChangeImpl(0, Operation.INSERT, ProcessorBenchmark.text(10_000), 1));
+        return document;
+    }
+
+    private static List<Change> edit(Processor processor, PlainTextDocument document) throws EditValidationException {
+        DocumentSnapshot snapshot = document.getSnapshot();
+        int startPosition = ThreadLocalRandom.current().nextInt(snapshot.getLength(snapshot.getVersion()) + 1);
+        EditImpl edit = EditImpl.constructInsert(snapshot.getVersion(), startPosition, "a");
+        return processor.processEdit(document, edit, Thread.currentThread().getId());
+    }
+
+}
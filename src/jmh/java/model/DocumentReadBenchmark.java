@@ -0,0 +1,49 @@
+package model;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Lock-free reads of a document with 4096 changes: the last `changes` changes and the length at a random version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentReadBenchmark {
+
+    private static final int VERSIONS = 4096;
+
+    @Param({"1", "16", "1024"})
+    public int changes;
+
+    private PlainTextDocument document;
+
+    @Setup
+    public void setUp() throws EditValidationException {
+        Processor processor = new Processor();
+        document = new PlainTextDocument(1, "Benchmark");
+        for (int i = 0; i < VERSIONS; i++) {
+            processor.processEdit(document, EditImpl.constructInsert(i, i / 2, "ab"), i % 8);
+        }
+    }
+
+    @Benchmark
+    public void getChanges(Blackhole blackhole) {
+        for (Change change : document.getChanges(document.getVersion() - changes)) {
+            blackhole.consume(change.getStartPosition());
+            blackhole.consume(change.getText());
+        }
+    }
+
+    @Benchmark
+    public int getLength() {
+        return document.getLength(ThreadLocalRandom.current().nextInt(VERSIONS + 1));
+    }
+
+}
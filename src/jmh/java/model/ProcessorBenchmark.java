@@ -0,0 +1,75 @@
+package model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One edit from `backlog` versions ago, merged by `Processor.processEdit` into a document of `documentLength` symbols.
+ * With `transformCacheMinChanges` of 64, a backlog of 256 changes is eligible for the transform cache,
+ * zero merges every edit pairwise. The cache builds a transform only for a version requested twice,
+ * here it happens when a deletion removes nothing and the version stays the same.
+ *
+ * The deletions refill the document with one insertion when it shrinks to a half, so the length stays in range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int documentLength;
+
+    @Param({"0", "16", "256"})
+    public int backlog;
+
+    @Param({"64", "0"})
+    public int transformCacheMinChanges;
+
+    private final Random random = new Random(42);
+    private Processor processor;
+    private PlainTextDocument document;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws EditValidationException {
+        processor = new Processor(false, transformCacheMinChanges);
+        document = new PlainTextDocument(1, "Benchmark", new RetentionPolicy(1024, 0));
+        processor.processEdit(document, EditImpl.constructInsert(0, 0, text(documentLength)), 1);
+        for (int i = 0; i < backlog; i++) {
+            int startPosition = random.nextInt(document.getLength(document.getVersion()) + 1);
+            processor.processEdit(document, EditImpl.constructInsert(document.getVersion(), startPosition, "a"), 2);
+        }
+    }
+
+    @Benchmark
+    public List<Change> insert() throws EditValidationException {
+        int fromVersion = document.getVersion() - backlog;
+        int startPosition = random.nextInt(document.getLength(fromVersion) + 1);
+        return processor.processEdit(document, EditImpl.constructInsert(fromVersion, startPosition, "a"), 1);
+    }
+
+    @Benchmark
+    public List<Change> delete() throws EditValidationException {
+        if (document.getLength(document.getVersion()) < documentLength / 2) {
+            processor.processEdit(
+                    document, EditImpl.constructInsert(document.getVersion(), 0, text(documentLength / 2)), 2
+            );
+        }
+        int fromVersion = document.getVersion() - backlog;
+        int startPosition = random.nextInt(document.getLength(fromVersion));
+        return processor.processEdit(document, EditImpl.constructDelete(fromVersion, startPosition, 1), 1);
+    }
+
+    static String text(int length) {
+        char[] text = new char[length];
+        Arrays.fill(text, 'x');
+        return new String(text);
+    }
+
+}
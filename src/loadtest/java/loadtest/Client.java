@@ -0,0 +1,370 @@
+package loadtest;
+
+import model.Change;
+import model.ChangeImpl;
+import model.EditImpl;
+import model.Operation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Simulated typist with a local text, that it edits at once, and a replica of the server text at the last version
+ * it has seen.
+ *
+ * The edits made on the local text are pending until the server acknowledges them. The client keeps typing while
+ * a request is in flight, the next batch is sent with all the edits typed meanwhile when the response arrives.
+ * The changes of other clients in a response are transformed against the pending edits before they are applied
+ * to the local text, and the pending edits are transformed against them, the same way the server transforms
+ * a stale batch, see Processor. So the local text converges to the server text once nothing is pending.
+ */
+final class Client implements Runnable {
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz ";
+
+    private final Target target;
+    private final long documentId;
+    private final long userId;
+    private final Options options;
+    private final long deadline;
+    private final Random random;
+
+    private final StringBuilder replica = new StringBuilder();
+    private int version = 0;
+    private final StringBuilder local = new StringBuilder();
+    private int cursor = 0;
+
+    /*
+     * Edits on the replica, each after the previous ones, that lead to the local text.
+     * The first `inFlight` of them are sent with the request in flight.
+     */
+    private final List<PendingEdit> pending = new ArrayList<>();
+    private int inFlight = 0;
+    private CompletableFuture<Update> response;
+
+    private long[] latencies = new long[1024];
+    private int requests = 0;
+    private long edits = 0;
+    private int rejected = 0;
+    private int resyncs = 0;
+    private Exception failure;
+
+    Client(Target target, long documentId, long userId, Options options, long deadline) {
+        this.target = target;
+        this.documentId = documentId;
+        this.userId = userId;
+        this.options = options;
+        this.deadline = deadline;
+        this.random = new Random(options.seed + userId);
+    }
+
+    @Override
+    public void run() {
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try {
+            while (System.nanoTime() < deadline) {
+                pace();
+                type();
+                if (response != null && (response.isDone() || pending.size() - inFlight >= options.batch)) {
+                    receive();
+                }
+                if (response == null && !pending.isEmpty()) {
+                    send(sender);
+                }
+            }
+            while (response != null) {
+                receive();
+                if (!pending.isEmpty()) {
+                    send(sender);
+                }
+            }
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            failure = e;
+        } finally {
+            sender.shutdown();
+        }
+    }
+
+    /*
+     * Fetches the changes made after the last response, so the replica and the local text are at the latest version.
+     */
+    void catchUp() throws IOException {
+        apply(target.getChanges(documentId, version));
+    }
+
+    String getLocalText() {
+        return local.toString();
+    }
+
+    String getReplica() {
+        return replica.toString();
+    }
+
+    long[] getLatencies() {
+        return Arrays.copyOf(latencies, requests);
+    }
+
+    long getEdits() {
+        return edits;
+    }
+
+    int getRejected() {
+        return rejected;
+    }
+
+    int getResyncs() {
+        return resyncs;
+    }
+
+    Exception getFailure() {
+        return failure;
+    }
+
+    /*
+     * Waits for an exponentially distributed think time, so the client makes `rate` edits per second on average.
+     */
+    private void pace() throws InterruptedException {
+        if (options.rate <= 0) {
+            return;
+        }
+        double seconds = -Math.log(1 - random.nextDouble()) * options.batch / options.rate;
+        TimeUnit.NANOSECONDS.sleep((long) (seconds * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /*
+     * Types `batch` edits at the cursor of the local text. The cursor sometimes jumps to a random position,
+     * as if the user clicked elsewhere.
+     */
+    private void type() {
+        cursor = Math.min(cursor, local.length());
+        for (int i = 0; i < options.batch; i++) {
+            if (random.nextInt(20) == 0) {
+                cursor = random.nextInt(local.length() + 1);
+            }
+            if (cursor > 0 && random.nextDouble() < options.deleteRatio) {
+                cursor--;
+                pending.add(new PendingEdit(Operation.DELETE, cursor, local.substring(cursor, cursor + 1)));
+                local.deleteCharAt(cursor);
+            } else {
+                String symbol = String.valueOf(LETTERS.charAt(random.nextInt(LETTERS.length())));
+                pending.add(new PendingEdit(Operation.INSERT, cursor, symbol));
+                local.insert(cursor, symbol);
+                cursor++;
+            }
+        }
+    }
+
+    /*
+     * Sends all pending edits from the replica version. The edits are copied, the server may change them.
+     */
+    private void send(ExecutorService sender) {
+        List<EditImpl> batch = new ArrayList<>();
+        for (PendingEdit edit : pending) {
+            batch.add(edit.operation == Operation.INSERT
+                    ? EditImpl.constructInsert(version, edit.position, edit.text)
+                    : EditImpl.constructDelete(version, edit.position, 1));
+        }
+        inFlight = batch.size();
+        response = CompletableFuture.supplyAsync(() -> {
+            long startTime = System.nanoTime();
+            try {
+                Update update = target.edit(documentId, batch, userId);
+                record(System.nanoTime() - startTime);
+                return update;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, sender);
+    }
+
+    /*
+     * Waits for the response in flight. If the server rejects the edits, all pending edits are dropped
+     * and the client catches up with the server.
+     */
+    private void receive() throws IOException, InterruptedException {
+        Update update;
+        try {
+            update = response.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+        response = null;
+        if (update == null) {
+            rejected++;
+            pending.clear();
+            inFlight = 0;
+            local.setLength(0);
+            local.append(replica);
+            catchUp();
+            return;
+        }
+        if (!update.isResync()) {
+            edits += inFlight;
+        }
+        apply(update);
+    }
+
+    /*
+     * Changes of this client acknowledge the edits in flight, they are in the replica and the local text already.
+     * Changes of other clients before them are transformed against all pending edits, the ones after them
+     * against the edits that are not sent yet.
+     */
+    private void apply(Update update) {
+        if (update.isResync()) {
+            resyncs++;
+            replica.setLength(0);
+            replica.append(update.getResyncText());
+            pending.clear();
+            inFlight = 0;
+            local.setLength(0);
+            local.append(replica);
+        } else if (update.getFromVersion() != version) {
+            throw new IllegalStateException("Changes from version " + update.getFromVersion() + " at " + version);
+        }
+        version = update.getFromVersion();
+        for (Change change : update.getChanges()) {
+            apply(replica, change);
+            version = (int) change.getId();
+            if (change.getUserId() == userId) {
+                acknowledge();
+                continue;
+            }
+            List<Change> changes = new ArrayList<>();
+            changes.add(change);
+            for (int i = 0; i < pending.size(); i++) {
+                changes = transform(changes, pending.get(i));
+                if (pending.get(i).position < 0) {
+                    pending.remove(i);
+                    if (i < inFlight) {
+                        inFlight--;
+                    }
+                    i--;
+                }
+            }
+            for (Change transformedChange : changes) {
+                apply(local, transformedChange);
+                cursor = transformCursor(cursor, transformedChange);
+            }
+        }
+        acknowledge();
+    }
+
+    private void acknowledge() {
+        pending.subList(0, inFlight).clear();
+        inFlight = 0;
+    }
+
+    /*
+     * Transforms the changes against the edit and the edit against the changes, both were made on the same text.
+     * Returns the changes to apply after the edit. A pending deletion of a deleted symbol disappears,
+     * its position becomes negative.
+     */
+    private List<Change> transform(List<Change> changes, PendingEdit edit) {
+        List<Change> transformedChanges = new ArrayList<>();
+        for (Change change : changes) {
+            int start = change.getStartPosition();
+            int length = change.getText().length();
+            if (edit.position < 0) {
+                transformedChanges.add(change);
+            } else if (change.getOperation() == Operation.INSERT) {
+                if (edit.position < start) {
+                    transformedChanges.add(shift(change, edit.operation == Operation.INSERT ? 1 : -1));
+                } else {
+                    transformedChanges.add(change);
+                }
+                if (start <= edit.position) {
+                    edit.position += length;
+                }
+            } else if (edit.operation == Operation.INSERT) {
+                if (edit.position <= start) {
+                    transformedChanges.add(shift(change, 1));
+                } else if (edit.position >= start + length) {
+                    transformedChanges.add(change);
+                    edit.position -= length;
+                } else {
+                    String text = change.getText();
+                    int split = edit.position - start;
+                    transformedChanges.add(delete(edit.position + 1, text.substring(split), change));
+                    transformedChanges.add(delete(start, text.substring(0, split), change));
+                    edit.position = start;
+                }
+            } else if (edit.position < start) {
+                transformedChanges.add(shift(change, -1));
+            } else if (edit.position >= start + length) {
+                transformedChanges.add(change);
+                edit.position -= length;
+            } else {
+                String text = change.getText();
+                int split = edit.position - start;
+                if (length > 1) {
+                    transformedChanges.add(delete(start, text.substring(0, split) + text.substring(split + 1), change));
+                }
+                edit.position = -1;
+            }
+        }
+        return transformedChanges;
+    }
+
+    private static Change shift(Change change, int shift) {
+        return new ChangeImpl(
+                change.getStartPosition() + shift, change.getOperation(), change.getText(), change.getUserId()
+        );
+    }
+
+    private static Change delete(int start, String text, Change change) {
+        return new ChangeImpl(start, Operation.DELETE, text, change.getUserId());
+    }
+
+    private static int transformCursor(int cursor, Change change) {
+        int start = change.getStartPosition();
+        int length = change.getText().length();
+        if (change.getOperation() == Operation.INSERT) {
+            return start < cursor ? cursor + length : cursor;
+        }
+        return start < cursor ? cursor - Math.min(cursor - start, length) : cursor;
+    }
+
+    private static void apply(StringBuilder text, Change change) {
+        int start = change.getStartPosition();
+        if (change.getOperation() == Operation.INSERT) {
+            text.insert(start, change.getText());
+        } else {
+            text.delete(start, start + change.getText().length());
+        }
+    }
+
+    private void record(long latency) {
+        if (requests == latencies.length) {
+            latencies = Arrays.copyOf(latencies, requests * 2);
+        }
+        latencies[requests++] = latency;
+    }
+
+    private static final class PendingEdit {
+
+        private final Operation operation;
+        private final String text;
+        private int position;
+
+        private PendingEdit(Operation operation, int position, String text) {
+            this.operation = operation;
+            this.position = position;
+            this.text = text;
+        }
+
+    }
+
+}
@@ -0,0 +1,192 @@
+package loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.Change;
+import model.EditImpl;
+import model.Operation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Drives the running application over its JSON API. Connections are kept alive by HttpURLConnection.
+ *
+ * The server takes the user id of the edits from the HTTP session, so each simulated user keeps its own session
+ * and the user id of its changes is replaced with the simulated one, see Client.
+ */
+final class HttpTarget implements Target {
+
+    private static final String SESSION_COOKIE = "JSESSIONID";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String baseUrl;
+    private final Map<Long, String> sessionIds = new ConcurrentHashMap<>();
+
+    HttpTarget(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    @Override
+    public long createDocument(String name) throws IOException {
+        String path = "/documents?name=" + URLEncoder.encode(name, StandardCharsets.UTF_8.name());
+        return request("POST", path, null, null).get("id").asLong();
+    }
+
+    @Override
+    public Update edit(long documentId, List<EditImpl> edits, long userId) throws IOException {
+        JsonNode response = request("PUT", "/documents/" + documentId + "/changes/batch", edits, userId);
+        if (response == null) {
+            return null;
+        }
+        String sessionId = sessionIds.get(userId);
+        long serverUserId = sessionId == null ? 0 : sessionId.hashCode();
+        return toUpdate(edits.get(0).getFromVersion(), response, serverUserId, userId);
+    }
+
+    @Override
+    public Update getChanges(long documentId, int fromVersion) throws IOException {
+        String path = "/documents/" + documentId + "/changes?fromVersion=" + fromVersion;
+        return toUpdate(fromVersion, request("GET", path, null, null), 0, 0);
+    }
+
+    @Override
+    public String getText(long documentId) throws IOException {
+        return request("GET", "/documents/" + documentId, null, null).get("text").asText();
+    }
+
+    /*
+     * Returns null on 400 Bad Request. The request is made in the session of the user, if `userId` is not null.
+     */
+    private JsonNode request(String method, String path, Object body, Long userId) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", "application/json");
+        if (userId != null && sessionIds.containsKey(userId)) {
+            connection.setRequestProperty("Cookie", SESSION_COOKIE + "=" + sessionIds.get(userId));
+        }
+        if (body != null) {
+            byte[] content = mapper.writeValueAsBytes(body);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(content.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(content);
+            }
+        }
+        int status = connection.getResponseCode();
+        if (userId != null) {
+            rememberSession(connection, userId);
+        }
+        if (status == HttpURLConnection.HTTP_BAD_REQUEST) {
+            try (InputStream in = connection.getErrorStream()) {
+                mapper.readTree(in);
+            }
+            return null;
+        }
+        if (status / 100 != 2) {
+            throw new IOException(method + " " + path + " failed with status " + status);
+        }
+        try (InputStream in = connection.getInputStream()) {
+            return mapper.readTree(in);
+        }
+    }
+
+    private void rememberSession(HttpURLConnection connection, long userId) {
+        List<String> cookies = connection.getHeaderFields().get("Set-Cookie");
+        if (cookies == null) {
+            return;
+        }
+        for (String cookie : cookies) {
+            if (cookie.startsWith(SESSION_COOKIE + "=")) {
+                int end = cookie.indexOf(';');
+                sessionIds.put(userId, cookie.substring(SESSION_COOKIE.length() + 1, end < 0 ? cookie.length() : end));
+            }
+        }
+    }
+
+    /*
+     * Changes of `serverUserId` are given `userId`.
+     */
+    private static Update toUpdate(int fromVersion, JsonNode response, long serverUserId, long userId) {
+        if (response.isArray()) {
+            return Update.changes(fromVersion, toChanges(response, serverUserId, userId));
+        }
+        return Update.resync(
+                response.get("version").asInt(),
+                response.get("text").asText(),
+                toChanges(response.get("changes"), serverUserId, userId)
+        );
+    }
+
+    private static List<Change> toChanges(JsonNode nodes, long serverUserId, long userId) {
+        List<Change> changes = new ArrayList<>();
+        for (JsonNode node : nodes) {
+            long changeUserId = node.get("userId").asLong();
+            changes.add(new ReceivedChange(
+                    node.get("id").asLong(),
+                    node.get("startPosition").asInt(),
+                    Operation.valueOf(node.get("operation").asText()),
+                    node.get("text").asText(),
+                    serverUserId != 0 && changeUserId == serverUserId ? userId : changeUserId
+            ));
+        }
+        return changes;
+    }
+
+    /*
+     * Change with the version id assigned by the server.
+     */
+    private static final class ReceivedChange implements Change {
+
+        private final long id;
+        private final int startPosition;
+        private final Operation operation;
+        private final String text;
+        private final long userId;
+
+        private ReceivedChange(long id, int startPosition, Operation operation, String text, long userId) {
+            this.id = id;
+            this.startPosition = startPosition;
+            this.operation = operation;
+            this.text = text;
+            this.userId = userId;
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public int getStartPosition() {
+            return startPosition;
+        }
+
+        @Override
+        public Operation getOperation() {
+            return operation;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public long getUserId() {
+            return userId;
+        }
+
+    }
+
+}
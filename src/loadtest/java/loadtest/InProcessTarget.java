@@ -0,0 +1,57 @@
+package loadtest;
+
+import model.*;
+
+import java.util.List;
+
+/*
+ * Drives the Processor directly, without the web layer.
+ */
+final class InProcessTarget implements Target {
+
+    private final HashMapStorage storage = new HashMapStorage();
+    private final Processor processor;
+
+    InProcessTarget(boolean sequencerEnabled) {
+        this.processor = new Processor(sequencerEnabled, 64);
+    }
+
+    @Override
+    public long createDocument(String name) {
+        return storage.createDocument(name).getId();
+    }
+
+    @Override
+    public Update edit(long documentId, List<EditImpl> edits, long userId) {
+        PlainTextDocument document = storage.getDocument(documentId);
+        int fromVersion = edits.get(0).getFromVersion();
+        try {
+            return Update.changes(fromVersion, processor.processEdits(document, edits, userId));
+        } catch (EditValidationException e) {
+            return null;
+        } catch (VersionNotRetainedException e) {
+            return resync(document);
+        }
+    }
+
+    @Override
+    public Update getChanges(long documentId, int fromVersion) {
+        PlainTextDocument document = storage.getDocument(documentId);
+        try {
+            return Update.changes(fromVersion, document.getChanges(fromVersion));
+        } catch (VersionNotRetainedException e) {
+            return resync(document);
+        }
+    }
+
+    @Override
+    public String getText(long documentId) {
+        return storage.getDocument(documentId).getText();
+    }
+
+    private static Update resync(PlainTextDocument document) {
+        Resync resync = document.createResync();
+        return Update.resync(resync.getVersion(), resync.getText(), resync.getChanges());
+    }
+
+}
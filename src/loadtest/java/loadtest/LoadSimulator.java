@@ -0,0 +1,95 @@
+package loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Load generator for concurrent editing: `clients` typists edit `documents` documents for `duration` seconds,
+ * see Client. It reports the throughput, the latency percentiles of the edit requests and whether the replica
+ * and the local text of every client converged to the server text.
+ * The exit code is 1 if a client diverged or failed.
+ *
+ * Options, all optional:
+ *   target=in-process|http  drive the Processor in this process or the application at `url`
+ *   url=http://localhost:8080
+ *   sequencer=false         in-process only, see Processor
+ *   clients=16 documents=1 duration=10
+ *   rate=0                  edits per second of each client, 0 means as fast as possible
+ *   batch=1                 edits per request
+ *   delete-ratio=0.2 seed=1
+ */
+public final class LoadSimulator {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options(args);
+        Target target = options.target.equals("http")
+                ? new HttpTarget(options.url)
+                : new InProcessTarget(options.sequencer);
+        System.out.println(options);
+
+        List<Long> documentIds = new ArrayList<>();
+        for (int i = 0; i < options.documents; i++) {
+            documentIds.add(target.createDocument("Load " + i));
+        }
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.SECONDS.toNanos(options.duration);
+        List<Client> clients = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < options.clients; i++) {
+            Client client = new Client(target, documentIds.get(i % documentIds.size()), i + 1, options, deadline);
+            Thread thread = new Thread(client, "client-" + (i + 1));
+            clients.add(client);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        long edits = 0;
+        int rejected = 0;
+        int resyncs = 0;
+        int failed = 0;
+        int converged = 0;
+        List<long[]> latencies = new ArrayList<>();
+        for (int i = 0; i < clients.size(); i++) {
+            Client client = clients.get(i);
+            edits += client.getEdits();
+            rejected += client.getRejected();
+            resyncs += client.getResyncs();
+            latencies.add(client.getLatencies());
+            if (client.getFailure() != null) {
+                failed++;
+                System.out.println("Client " + (i + 1) + " failed: " + client.getFailure());
+                continue;
+            }
+            client.catchUp();
+            String text = target.getText(documentIds.get(i % documentIds.size()));
+            if (client.getReplica().equals(text) && client.getLocalText().equals(text)) {
+                converged++;
+            } else {
+                System.out.println("Client " + (i + 1) + " diverged from the server text");
+            }
+        }
+        long[] sorted = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+
+        System.out.printf("requests: %d, edits: %d, %.1f edits/s, rejected: %d, resyncs: %d%n",
+                sorted.length, edits, edits / seconds, rejected, resyncs);
+        System.out.printf("latency ms: p50 %.3f, p99 %.3f, p999 %.3f, max %.3f%n",
+                percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1));
+        System.out.printf("converged: %d of %d clients%n", converged, clients.size());
+        System.exit(converged == clients.size() && failed == 0 ? 0 : 1);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1);
+        return sorted[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
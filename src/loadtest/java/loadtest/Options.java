@@ -0,0 +1,56 @@
+package loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Options of the simulator as `name=value` arguments, see LoadSimulator.
+ */
+final class Options {
+
+    final String target;
+    final String url;
+    final boolean sequencer;
+    final int clients;
+    final int documents;
+    final int duration;
+    final double rate;
+    final int batch;
+    final double deleteRatio;
+    final long seed;
+
+    Options(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            values.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        target = values.getOrDefault("target", "in-process");
+        url = values.getOrDefault("url", "http://localhost:8080");
+        sequencer = Boolean.parseBoolean(values.getOrDefault("sequencer", "false"));
+        clients = Integer.parseInt(values.getOrDefault("clients", "16"));
+        documents = Integer.parseInt(values.getOrDefault("documents", "1"));
+        duration = Integer.parseInt(values.getOrDefault("duration", "10"));
+        rate = Double.parseDouble(values.getOrDefault("rate", "0"));
+        batch = Integer.parseInt(values.getOrDefault("batch", "1"));
+        deleteRatio = Double.parseDouble(values.getOrDefault("delete-ratio", "0.2"));
+        seed = Long.parseLong(values.getOrDefault("seed", "1"));
+        if (!target.equals("in-process") && !target.equals("http")) {
+            throw new IllegalArgumentException("Unknown target: " + target + ", expected in-process or http");
+        }
+        if (clients < 1 || documents < 1 || batch < 1) {
+            throw new IllegalArgumentException("clients, documents and batch must be positive");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "target=" + (target.equals("http") ? url : target + " sequencer=" + sequencer) +
+                " clients=" + clients + " documents=" + documents + " duration=" + duration + "s" +
+                " rate=" + (rate > 0 ? rate + "/s" : "unlimited") + " batch=" + batch + " delete-ratio=" + deleteRatio;
+    }
+
+}
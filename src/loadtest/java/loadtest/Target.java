@@ -0,0 +1,24 @@
+package loadtest;
+
+import model.EditImpl;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Server under load, either the Processor in this process or the application over HTTP.
+ */
+interface Target {
+
+    long createDocument(String name) throws IOException;
+
+    /*
+     * Returns null if the server rejects the edits.
+     */
+    Update edit(long documentId, List<EditImpl> edits, long userId) throws IOException;
+
+    Update getChanges(long documentId, int fromVersion) throws IOException;
+
+    String getText(long documentId) throws IOException;
+
+}
@@ -0,0 +1,46 @@
+package loadtest;
+
+import model.Change;
+
+import java.util.List;
+
+/*
+ * Changes returned by the server after a version, or a resync if the version is not retained anymore.
+ */
+final class Update {
+
+    private final int fromVersion;
+    private final String resyncText;
+    private final List<? extends Change> changes;
+
+    private Update(int fromVersion, String resyncText, List<? extends Change> changes) {
+        this.fromVersion = fromVersion;
+        this.resyncText = resyncText;
+        this.changes = changes;
+    }
+
+    static Update changes(int fromVersion, List<? extends Change> changes) {
+        return new Update(fromVersion, null, changes);
+    }
+
+    static Update resync(int version, String text, List<? extends Change> changes) {
+        return new Update(version, text, changes);
+    }
+
+    int getFromVersion() {
+        return fromVersion;
+    }
+
+    boolean isResync() {
+        return resyncText != null;
+    }
+
+    String getResyncText() {
+        return resyncText;
+    }
+
+    List<? extends Change> getChanges() {
+        return changes;
+    }
+
+}
@@ -0,0 +1,696 @@
+package model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Append-only change log, that is read without locking.
+ *
+ * Changes are stored by columns in chunks of CHUNK_SIZE entries: start positions, operation bits, user ids and offsets
+ * of the texts, which are copied into one shared char arena. `Change` instances are only views of a log entry.
+ * Each entry is also encoded into a JSON frame, frames are stored one after another in a byte arena,
+ * see EncodedChanges. Without coalescing, and for deletions, the frame is stored when the entry is appended.
+ * An insertion that can still be continued is stored when the next entry is appended, until then its frame
+ * is encoded once per view on the first read.
+ * The last chunk of the entries, of the arenas and of the lengths starts small and is replaced by a copy of double
+ * the size as it fills, up to the full size, so a small document takes little memory. A slot is never changed
+ * once it is written, the previous views keep the smaller copy.
+ * Each instance is an immutable view of the log between the base version and the version,
+ * appending writes the next free slot and returns a new view, that shares the chunks with the previous one.
+ * Readers of the previous view never look at the slots and the texts after its version.
+ * There must be a single writer, that always appends to the latest view.
+ *
+ * An entry is usually one change of one version. With coalescing, an insertion that continues the last inserted text
+ * of the same user is merged into the last entry, so an entry holds a run of versions, see `append`.
+ * Views of the changes after a version inside a run return the rest of the run as one change.
+ *
+ * Lengths of the text are kept for every version from the base version, or from the version before the first
+ * retained entry if it is dropped in part, see `compact`. Pages of the lengths are indexed by the version from 0,
+ * the pages before the first length version are null.
+ */
+final class ChangeLog {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    private static final int ARENA_CHUNK_BITS = 16;
+    private static final int ARENA_CHUNK_SIZE = 1 << ARENA_CHUNK_BITS;
+    private static final int ARENA_CHUNK_MASK = ARENA_CHUNK_SIZE - 1;
+    private static final int MIN_ARENA_CHUNK_SIZE = 256;
+
+    /*
+     * Entry `e` is stored at index `e` from the creation of the log, chunk `chunks[0]` holds the indexes
+     * from `firstChunk`. Text of the entry is stored in the arena from its offset to the offset of the next entry,
+     * `arena[0]` holds the offsets from `firstArenaChunk`. Frames are stored the same way in `frames`,
+     * `framesEnd` is the end of the stored frames, the frame of the last entry is stored if `lastFrameStored`.
+     */
+    private final Chunk[] chunks;
+    private final int firstChunk;
+    private final int entries;
+    private final char[][] arena;
+    private final long firstArenaChunk;
+    private final long textEnd;
+    private final byte[][] frames;
+    private final long firstFramesChunk;
+    private final long framesEnd;
+    private final boolean lastFrameStored;
+    private final boolean coalescing;
+    private final int[][] lengths;
+    private final int firstLengthVersion;
+    private final int baseVersion;
+    private final int version;
+
+    /*
+     * Frame of the last entry, if it is not stored, encoded on the first read of the view.
+     */
+    private volatile byte[] lastFrame;
+
+    private ChangeLog(
+            Chunk[] chunks,
+            int firstChunk,
+            int entries,
+            char[][] arena,
+            long firstArenaChunk,
+            long textEnd,
+            byte[][] frames,
+            long firstFramesChunk,
+            long framesEnd,
+            boolean lastFrameStored,
+            boolean coalescing,
+            int[][] lengths,
+            int firstLengthVersion,
+            int baseVersion,
+            int version
+    ) {
+        this.chunks = chunks;
+        this.firstChunk = firstChunk;
+        this.entries = entries;
+        this.arena = arena;
+        this.firstArenaChunk = firstArenaChunk;
+        this.textEnd = textEnd;
+        this.frames = frames;
+        this.firstFramesChunk = firstFramesChunk;
+        this.framesEnd = framesEnd;
+        this.lastFrameStored = lastFrameStored;
+        this.coalescing = coalescing;
+        this.lengths = lengths;
+        this.firstLengthVersion = firstLengthVersion;
+        this.baseVersion = baseVersion;
+        this.version = version;
+    }
+
+    static ChangeLog create(int length) {
+        return create(0, length, false);
+    }
+
+    /*
+     * Empty log of a document restored at `baseVersion`, for example from a checkpoint.
+     * Only a log created with `coalescing` merges the appended changes, see `append`.
+     */
+    static ChangeLog create(int baseVersion, int length, boolean coalescing) {
+        int lengthChunk = baseVersion >>> CHUNK_BITS;
+        int[][] lengths = new int[lengthChunk + 1][];
+        lengths[lengthChunk] = new int[capacity((baseVersion & CHUNK_MASK) + 1, MIN_CHUNK_SIZE, CHUNK_SIZE)];
+        lengths[lengthChunk][baseVersion & CHUNK_MASK] = length;
+        return new ChangeLog(
+                new Chunk[0], 0, 0, new char[0][], 0, 0, new byte[0][], 0, 0, true, coalescing,
+                lengths, baseVersion, baseVersion, baseVersion
+        );
+    }
+
+    int getBaseVersion() {
+        return baseVersion;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /*
+     * Number of the retained versions, merged changes are counted by their versions.
+     */
+    int size() {
+        return version - baseVersion;
+    }
+
+    /*
+     * Change of one version, the version must be in range (base version, version].
+     */
+    Change get(int version) {
+        return new LoggedChange(entry(version), version - 1, version);
+    }
+
+    /*
+     * Estimated heap size of the chunks the log refers to. All chunks but the last one are full.
+     */
+    long getRetainedSize() {
+        long size = (long) (version - firstLengthVersion + 1) * Integer.BYTES;
+        if (chunks.length > 0) {
+            size += (chunks.length - 1) * Chunk.size(CHUNK_SIZE) + Chunk.size(chunks[chunks.length - 1].capacity());
+        }
+        if (arena.length > 0) {
+            size += ((long) (arena.length - 1) * ARENA_CHUNK_SIZE + arena[arena.length - 1].length) * Character.BYTES;
+        }
+        if (frames.length > 0) {
+            size += (long) (frames.length - 1) * ARENA_CHUNK_SIZE + frames[frames.length - 1].length;
+        }
+        return size;
+    }
+
+    int getFirstLengthVersion() {
+        return firstLengthVersion;
+    }
+
+    /*
+     * The version must be in range [first length version, version].
+     */
+    int getLength(int version) {
+        return lengths[version >>> CHUNK_BITS][version & CHUNK_MASK];
+    }
+
+    /*
+     * Changes after `fromVersion` as an immutable view, `fromVersion` must be in range [base version, version].
+     */
+    List<Change> getChanges(int fromVersion) {
+        return getChanges(fromVersion, version);
+    }
+
+    /*
+     * Changes after `fromVersion` up to `toVersion`, both must be in range [base version, version].
+     * A merged change is cut to the versions in the range, its id is the last version it covers.
+     */
+    List<Change> getChanges(int fromVersion, int toVersion) {
+        if (fromVersion >= toVersion) {
+            return Collections.emptyList();
+        }
+        int firstEntry = entry(fromVersion + 1);
+        int size = entry(toVersion) - firstEntry + 1;
+        return new AbstractList<Change>() {
+            @Override
+            public Change get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+                }
+                return new LoggedChange(firstEntry + index, fromVersion, toVersion);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /*
+     * Changes after `fromVersion` one per version, merged changes are split back, for example to be replayed.
+     */
+    List<Change> getVersionChanges(int fromVersion) {
+        return new AbstractList<Change>() {
+            @Override
+            public Change get(int index) {
+                if (index < 0 || index >= size()) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+                }
+                return ChangeLog.this.get(fromVersion + index + 1);
+            }
+
+            @Override
+            public int size() {
+                return version - fromVersion;
+            }
+        };
+    }
+
+    /*
+     * Frames of the changes after `fromVersion`, `fromVersion` must be in range [base version, version].
+     */
+    EncodedChanges getEncodedChanges(int fromVersion) {
+        return new EncodedChanges(this, fromVersion);
+    }
+
+    /*
+     * Frames of the changes after `fromVersion` without the leading comma,
+     * `fromVersion` must be in range [base version, version].
+     * The frame of the first change is encoded if the change is cut, the frame of the last entry is taken once
+     * per view if it is not stored yet, the frames between are written as they are stored.
+     */
+    Frames getFrames(int fromVersion) {
+        if (fromVersion == version) {
+            return new Frames(null, framesEnd, framesEnd, null);
+        }
+        int firstEntry = entry(fromVersion + 1);
+        int lastEntry = entries - 1;
+        byte[] head = null;
+        int storedEntry = firstEntry;
+        if (firstVersion(firstEntry) <= fromVersion) {
+            head = frame(firstEntry, fromVersion);
+            storedEntry++;
+        }
+        if (storedEntry > lastEntry) {
+            return new Frames(head, framesEnd, framesEnd, null);
+        }
+        return new Frames(head, frameOffset(storedEntry), framesEnd, lastFrameStored ? null : lastFrame());
+    }
+
+    ChangeLog append(Change change, int length) {
+        return append(change, length, 0);
+    }
+
+    /*
+     * An insertion of the same user, that starts right after the text inserted by the last entry, is merged into
+     * the last entry while its text is at most `maxCoalescedLength` symbols. Zero disables merging.
+     * The merged entry gets the next version as the single one, only the text and the length are appended.
+     */
+    ChangeLog append(Change change, int length, int maxCoalescedLength) {
+        String text = change.getText();
+        char[][] nextArena = reserve(arena, firstArenaChunk, textEnd, textEnd + text.length());
+        long offset = textEnd;
+        int copied = 0;
+        while (copied < text.length()) {
+            int count = Math.min(text.length() - copied, ARENA_CHUNK_SIZE - (int) (offset & ARENA_CHUNK_MASK));
+            char[] arenaChunk = nextArena[(int) ((offset >>> ARENA_CHUNK_BITS) - firstArenaChunk)];
+            text.getChars(copied, copied + count, arenaChunk, (int) (offset & ARENA_CHUNK_MASK));
+            copied += count;
+            offset += count;
+        }
+
+        int[][] nextLengths = lengths;
+        int lengthChunk = (version + 1) >>> CHUNK_BITS;
+        int lengthSlot = (version + 1) & CHUNK_MASK;
+        if (lengthChunk == lengths.length) {
+            nextLengths = Arrays.copyOf(lengths, lengths.length * 2);
+        }
+        if (nextLengths[lengthChunk] == null) {
+            nextLengths[lengthChunk] = new int[capacity(lengthSlot + 1, MIN_CHUNK_SIZE, CHUNK_SIZE)];
+        } else if (lengthSlot == nextLengths[lengthChunk].length) {
+            /* The page is read by the previous views, the grown copy is published in a copy of the page array. */
+            int[] page = nextLengths[lengthChunk];
+            nextLengths = nextLengths == lengths ? lengths.clone() : nextLengths;
+            nextLengths[lengthChunk] = Arrays.copyOf(page, capacity(lengthSlot + 1, page.length * 2, CHUNK_SIZE));
+        }
+        nextLengths[lengthChunk][lengthSlot] = length;
+
+        if (maxCoalescedLength > 0 && continuesLastEntry(change, maxCoalescedLength)) {
+            return new ChangeLog(
+                    chunks, firstChunk, entries, nextArena, firstArenaChunk, offset,
+                    frames, firstFramesChunk, framesEnd, false, coalescing,
+                    nextLengths, firstLengthVersion, baseVersion, version + 1
+            );
+        }
+
+        byte[][] nextFrames = frames;
+        long frameOffset = framesEnd;
+        if (!lastFrameStored) {
+            byte[] frame = lastFrame();
+            nextFrames = reserve(frames, firstFramesChunk, frameOffset, frameOffset + frame.length);
+            frameOffset = storeFrame(nextFrames, firstFramesChunk, frameOffset, frame);
+        }
+
+        int index = entries;
+        Chunk[] nextChunks = chunks;
+        int chunkIndex = (index >>> CHUNK_BITS) - firstChunk;
+        int slot = index & CHUNK_MASK;
+        if (chunkIndex == chunks.length) {
+            nextChunks = Arrays.copyOf(chunks, chunks.length + 1);
+            int capacity = chunks.length == 0 ? capacity(slot + 1, MIN_CHUNK_SIZE, CHUNK_SIZE) : CHUNK_SIZE;
+            nextChunks[chunkIndex] = new Chunk(capacity);
+        } else if (slot == chunks[chunkIndex].capacity()) {
+            nextChunks = chunks.clone();
+            nextChunks[chunkIndex] = new Chunk(chunks[chunkIndex], capacity(slot + 1, slot * 2, CHUNK_SIZE));
+        }
+        Chunk chunk = nextChunks[chunkIndex];
+        chunk.starts[slot] = change.getStartPosition();
+        chunk.userIds[slot] = change.getUserId();
+        chunk.textOffsets[slot] = textEnd;
+        chunk.frameOffsets[slot] = frameOffset;
+        chunk.firstVersions[slot] = version + 1;
+        if (change.getOperation() == Operation.DELETE) {
+            chunk.deletes[slot >>> 6] |= 1L << slot;
+        }
+        ChangeLog next = new ChangeLog(
+                nextChunks, firstChunk, entries + 1, nextArena, firstArenaChunk, offset,
+                nextFrames, firstFramesChunk, frameOffset, false, coalescing,
+                nextLengths, firstLengthVersion, baseVersion, version + 1
+        );
+        if (coalescing && change.getOperation() == Operation.INSERT) {
+            return next;
+        }
+        byte[] frame = next.lastFrame();
+        nextFrames = reserve(nextFrames, firstFramesChunk, frameOffset, frameOffset + frame.length);
+        return new ChangeLog(
+                nextChunks, firstChunk, entries + 1, nextArena, firstArenaChunk, offset,
+                nextFrames, firstFramesChunk, storeFrame(nextFrames, firstFramesChunk, frameOffset, frame), true,
+                coalescing, nextLengths, firstLengthVersion, baseVersion, version + 1
+        );
+    }
+
+    /*
+     * Drops the changes up to `nextBaseVersion`. Chunks that hold only dropped changes or their texts are released,
+     * as soon as the views that still refer to them are not used. An entry, that is dropped in part, is kept.
+     * Pages of the lengths are released the same way.
+     */
+    ChangeLog compact(int nextBaseVersion) {
+        int firstEntry = nextBaseVersion == version ? entries : entry(nextBaseVersion + 1);
+        int dropChunks = (firstEntry >>> CHUNK_BITS) - firstChunk;
+        Chunk[] nextChunks = dropChunks == 0 ? chunks : Arrays.copyOfRange(chunks, dropChunks, chunks.length);
+        long textStart = firstEntry == entries ? textEnd : textOffset(firstEntry);
+        int dropArenaChunks = (int) ((textStart >>> ARENA_CHUNK_BITS) - firstArenaChunk);
+        char[][] nextArena = dropArenaChunks == 0 ? arena : Arrays.copyOfRange(arena, dropArenaChunks, arena.length);
+        long framesStart = firstEntry == entries ? framesEnd : frameOffset(firstEntry);
+        int dropFramesChunks = (int) ((framesStart >>> ARENA_CHUNK_BITS) - firstFramesChunk);
+        byte[][] nextFrames = dropFramesChunks == 0
+                ? frames
+                : Arrays.copyOfRange(frames, dropFramesChunks, frames.length);
+        /* The frame of a dropped last entry is never read again. */
+        boolean nextLastFrameStored = lastFrameStored || firstEntry == entries;
+        /* The length before a retained entry is read by the views of its part after the base version. */
+        int nextFirstLengthVersion = firstEntry == entries
+                ? nextBaseVersion
+                : Math.min(nextBaseVersion, firstVersion(firstEntry) - 1);
+        int[][] nextLengths = lengths;
+        for (int page = firstLengthVersion >>> CHUNK_BITS; page < nextFirstLengthVersion >>> CHUNK_BITS; page++) {
+            nextLengths = nextLengths == lengths ? lengths.clone() : nextLengths;
+            nextLengths[page] = null;
+        }
+        return new ChangeLog(
+                nextChunks, firstChunk + dropChunks, entries, nextArena, firstArenaChunk + dropArenaChunks, textEnd,
+                nextFrames, firstFramesChunk + dropFramesChunks, framesEnd, nextLastFrameStored, coalescing,
+                nextLengths, nextFirstLengthVersion, nextBaseVersion, version
+        );
+    }
+
+    /*
+     * The last entry can be continued only while it is retained, the versions it covers are after the base version.
+     */
+    private boolean continuesLastEntry(Change change, int maxCoalescedLength) {
+        if (version == baseVersion || lastFrameStored || change.getOperation() != Operation.INSERT) {
+            return false;
+        }
+        int lastEntry = entries - 1;
+        Chunk chunk = chunk(lastEntry);
+        int slot = lastEntry & CHUNK_MASK;
+        int lastLength = textLength(lastEntry);
+        return (chunk.deletes[slot >>> 6] & 1L << slot) == 0 &&
+                chunk.userIds[slot] == change.getUserId() &&
+                chunk.starts[slot] + lastLength == change.getStartPosition() &&
+                lastLength + change.getSymbolsCount() <= maxCoalescedLength;
+    }
+
+    /*
+     * Entry of the version, the version must be in range (base version, version].
+     */
+    private int entry(int version) {
+        int low = firstChunk << CHUNK_BITS;
+        int high = entries - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstVersion(middle) <= version) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private Chunk chunk(int entry) {
+        return chunks[(entry >>> CHUNK_BITS) - firstChunk];
+    }
+
+    private int firstVersion(int entry) {
+        return chunk(entry).firstVersions[entry & CHUNK_MASK];
+    }
+
+    private int lastVersion(int entry) {
+        return entry + 1 < entries ? firstVersion(entry + 1) - 1 : version;
+    }
+
+    private long textOffset(int entry) {
+        return chunk(entry).textOffsets[entry & CHUNK_MASK];
+    }
+
+    private long frameOffset(int entry) {
+        return chunk(entry).frameOffsets[entry & CHUNK_MASK];
+    }
+
+    private int textLength(int entry) {
+        return (int) ((entry + 1 == entries ? textEnd : textOffset(entry + 1)) - textOffset(entry));
+    }
+
+    private String text(long offset, int length) {
+        char[] text = new char[length];
+        int copied = 0;
+        while (copied < text.length) {
+            int arenaOffset = (int) (offset & ARENA_CHUNK_MASK);
+            int count = Math.min(text.length - copied, ARENA_CHUNK_SIZE - arenaOffset);
+            char[] arenaChunk = arena[(int) ((offset >>> ARENA_CHUNK_BITS) - firstArenaChunk)];
+            System.arraycopy(arenaChunk, arenaOffset, text, copied, count);
+            copied += count;
+            offset += count;
+        }
+        return new String(text);
+    }
+
+    /*
+     * Frame of the entry after `fromVersion` up to the version of the log.
+     */
+    private byte[] frame(int entry, int fromVersion) {
+        Change change = new LoggedChange(entry, fromVersion, version);
+        return EncodedChanges.encodeFrame(
+                change.getId(), change.getStartPosition(), change.getOperation(), change.getText(), change.getUserId()
+        );
+    }
+
+    /*
+     * Capacity of a chunk that holds `size` slots, doubled from `minCapacity` up to `maxCapacity`.
+     */
+    private static int capacity(int size, int minCapacity, int maxCapacity) {
+        int capacity = minCapacity;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        return Math.min(capacity, maxCapacity);
+    }
+
+    /*
+     * Arena chunks with room for the offsets [start, end). The chunks the range touches are added or replaced
+     * by grown copies in a copy of the chunk array, the chunks before the last touched one are full.
+     */
+    private static char[][] reserve(char[][] arena, long firstArenaChunk, long start, long end) {
+        if (start == end) {
+            return arena;
+        }
+        int lastChunk = (int) (((end - 1) >>> ARENA_CHUNK_BITS) - firstArenaChunk);
+        char[][] nextArena = arena;
+        for (int i = (int) ((start >>> ARENA_CHUNK_BITS) - firstArenaChunk); i <= lastChunk; i++) {
+            int size = i < lastChunk ? ARENA_CHUNK_SIZE : (int) ((end - 1) & ARENA_CHUNK_MASK) + 1;
+            if (i < arena.length && arena[i].length >= size) {
+                continue;
+            }
+            if (nextArena == arena) {
+                nextArena = Arrays.copyOf(arena, Math.max(arena.length, lastChunk + 1));
+            }
+            nextArena[i] = i < arena.length
+                    ? Arrays.copyOf(arena[i], capacity(size, arena[i].length * 2, ARENA_CHUNK_SIZE))
+                    : new char[capacity(size, MIN_ARENA_CHUNK_SIZE, ARENA_CHUNK_SIZE)];
+        }
+        return nextArena;
+    }
+
+    /*
+     * The same as `reserve` of the char arena for the byte arena of the frames.
+     */
+    private static byte[][] reserve(byte[][] frames, long firstFramesChunk, long start, long end) {
+        if (start == end) {
+            return frames;
+        }
+        int lastChunk = (int) (((end - 1) >>> ARENA_CHUNK_BITS) - firstFramesChunk);
+        byte[][] nextFrames = frames;
+        for (int i = (int) ((start >>> ARENA_CHUNK_BITS) - firstFramesChunk); i <= lastChunk; i++) {
+            int size = i < lastChunk ? ARENA_CHUNK_SIZE : (int) ((end - 1) & ARENA_CHUNK_MASK) + 1;
+            if (i < frames.length && frames[i].length >= size) {
+                continue;
+            }
+            if (nextFrames == frames) {
+                nextFrames = Arrays.copyOf(frames, Math.max(frames.length, lastChunk + 1));
+            }
+            nextFrames[i] = i < frames.length
+                    ? Arrays.copyOf(frames[i], capacity(size, frames[i].length * 2, ARENA_CHUNK_SIZE))
+                    : new byte[capacity(size, MIN_ARENA_CHUNK_SIZE, ARENA_CHUNK_SIZE)];
+        }
+        return nextFrames;
+    }
+
+    private byte[] lastFrame() {
+        byte[] frame = lastFrame;
+        if (frame == null) {
+            frame = frame(entries - 1, firstVersion(entries - 1) - 1);
+            lastFrame = frame;
+        }
+        return frame;
+    }
+
+    /*
+     * Copies the frame to the reserved chunks at `offset` and returns the end offset.
+     */
+    private static long storeFrame(byte[][] frames, long firstFramesChunk, long offset, byte[] frame) {
+        int copied = 0;
+        while (copied < frame.length) {
+            int count = Math.min(frame.length - copied, ARENA_CHUNK_SIZE - (int) (offset & ARENA_CHUNK_MASK));
+            byte[] framesChunk = frames[(int) ((offset >>> ARENA_CHUNK_BITS) - firstFramesChunk)];
+            System.arraycopy(frame, copied, framesChunk, (int) (offset & ARENA_CHUNK_MASK), count);
+            copied += count;
+            offset += count;
+        }
+        return offset;
+    }
+
+    private static final class Chunk {
+
+        private final int[] starts;
+        private final long[] deletes;
+        private final long[] userIds;
+        private final long[] textOffsets;
+        private final long[] frameOffsets;
+        private final int[] firstVersions;
+
+        private Chunk(int capacity) {
+            starts = new int[capacity];
+            deletes = new long[(capacity + 63) >>> 6];
+            userIds = new long[capacity];
+            textOffsets = new long[capacity];
+            frameOffsets = new long[capacity];
+            firstVersions = new int[capacity];
+        }
+
+        /*
+         * Grown copy of the chunk.
+         */
+        private Chunk(Chunk chunk, int capacity) {
+            starts = Arrays.copyOf(chunk.starts, capacity);
+            deletes = Arrays.copyOf(chunk.deletes, (capacity + 63) >>> 6);
+            userIds = Arrays.copyOf(chunk.userIds, capacity);
+            textOffsets = Arrays.copyOf(chunk.textOffsets, capacity);
+            frameOffsets = Arrays.copyOf(chunk.frameOffsets, capacity);
+            firstVersions = Arrays.copyOf(chunk.firstVersions, capacity);
+        }
+
+        private int capacity() {
+            return starts.length;
+        }
+
+        private static long size(int capacity) {
+            return (long) capacity * (2 * Integer.BYTES + 3 * Long.BYTES) + capacity / Byte.SIZE;
+        }
+
+    }
+
+    /*
+     * Frames of a range of changes: the encoded frame of a cut first change, a range of the stored frames
+     * and the frame of the last entry, if it is not stored. The leading comma of the first frame is skipped.
+     */
+    final class Frames {
+
+        private final byte[] head;
+        private final long storedStart;
+        private final long storedEnd;
+        private final byte[] tail;
+        private final long length;
+
+        private Frames(byte[] head, long storedStart, long storedEnd, byte[] tail) {
+            this.head = head;
+            this.storedStart = storedStart;
+            this.storedEnd = storedEnd;
+            this.tail = tail;
+            long length = (head == null ? 0 : head.length) + storedEnd - storedStart + (tail == null ? 0 : tail.length);
+            this.length = length == 0 ? 0 : length - 1;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            int skip = 1;
+            if (head != null) {
+                out.write(head, skip, head.length - skip);
+                skip = 0;
+            }
+            long offset = storedStart + (storedStart < storedEnd ? skip : 0);
+            if (storedStart < storedEnd) {
+                skip = 0;
+            }
+            while (offset < storedEnd) {
+                int chunkOffset = (int) (offset & ARENA_CHUNK_MASK);
+                int count = (int) Math.min(storedEnd - offset, ARENA_CHUNK_SIZE - chunkOffset);
+                out.write(frames[(int) ((offset >>> ARENA_CHUNK_BITS) - firstFramesChunk)], chunkOffset, count);
+                offset += count;
+            }
+            if (tail != null) {
+                out.write(tail, skip, tail.length - skip);
+            }
+        }
+
+    }
+
+    /*
+     * View of the entry after `fromVersion` up to `toVersion`, the text is copied from the arena
+     * on each call of `getText()`. Only an insertion can cover several versions, a part of it is found
+     * by the text lengths of the versions.
+     */
+    private final class LoggedChange implements Change {
+
+        private final int entry;
+        private final int id;
+        private final int offset;
+        private final int symbolsCount;
+
+        private LoggedChange(int entry, int fromVersion, int toVersion) {
+            this.entry = entry;
+            int firstVersion = firstVersion(entry);
+            int lastVersion = lastVersion(entry);
+            int partFirstVersion = Math.max(fromVersion + 1, firstVersion);
+            this.id = Math.min(toVersion, lastVersion);
+            if (partFirstVersion == firstVersion && id == lastVersion) {
+                this.offset = 0;
+                this.symbolsCount = textLength(entry);
+            } else {
+                this.offset = getLength(partFirstVersion - 1) - getLength(firstVersion - 1);
+                this.symbolsCount = getLength(id) - getLength(partFirstVersion - 1);
+            }
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getStartPosition() {
+            return chunk(entry).starts[entry & CHUNK_MASK] + offset;
+        }
+
+        public Operation getOperation() {
+            int slot = entry & CHUNK_MASK;
+            return (chunk(entry).deletes[slot >>> 6] & 1L << slot) != 0 ? Operation.DELETE : Operation.INSERT;
+        }
+
+        public String getText() {
+            return text(textOffset(entry) + offset, symbolsCount);
+        }
+
+        public long getUserId() {
+            return chunk(entry).userIds[entry & CHUNK_MASK];
+        }
+
+        public int getSymbolsCount() {
+            return symbolsCount;
+        }
+
+    }
+
+}
@@ -0,0 +1,156 @@
+package model;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/*
+ * Checkpoints of the documents, one file per document. It is enabled when `storage.checkpoint.directory` is set.
+ *
+ * A checkpoint is written from a snapshot: the name, the base version and text and the retained change log after it.
+ * So it takes no locks and a restored document serves the same changes to the clients as before the restart.
+ * The file is written aside and moved in place, the last four bytes are CRC32 of the rest.
+ *
+ * The storage takes checkpoints every `storage.checkpoint.interval` milliseconds, see HashMapStorage.checkpoint.
+ */
+@Component
+public class CheckpointStore {
+
+    public static final CheckpointStore DISABLED = new CheckpointStore("", 0);
+
+    private static final int MAGIC = 0x44434b31;
+    private static final String SUFFIX = ".checkpoint";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long interval;
+
+    public CheckpointStore(
+            @Value("${storage.checkpoint.directory:}") String directory,
+            @Value("${storage.checkpoint.interval:60000}") long interval
+    ) {
+        this.directory = directory.isEmpty() ? null : Paths.get(directory);
+        this.interval = interval;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /*
+     * Checkpoints of one shard of ShardedStorage, in its own subdirectory.
+     */
+    public CheckpointStore forShard(int shard) {
+        return isEnabled()
+                ? new CheckpointStore(directory.resolve(ShardMarker.shardDirectory(shard)).toString(), interval)
+                : DISABLED;
+    }
+
+    /*
+     * Throws IllegalStateException if the checkpoints are written with another number of shards, see ShardMarker.
+     */
+    public void checkShardCount(int shardCount) throws IOException {
+        if (isEnabled()) {
+            ShardMarker.check(directory, shardCount, SUFFIX);
+        }
+    }
+
+    public List<Long> list() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(fileName -> fileName.endsWith(SUFFIX))
+                    .map(fileName -> Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public void write(DocumentSnapshot snapshot) throws IOException {
+        Files.createDirectories(directory);
+        Path path = path(snapshot.getId());
+        Path temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(
+                temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+        )) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), new CRC32()
+            );
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeLong(snapshot.getId());
+            WriteAheadLog.writeString(out, snapshot.getName());
+            out.writeInt(snapshot.getBaseVersion());
+            WriteAheadLog.writeString(out, snapshot.getBaseText().toString());
+            List<Change> changes = snapshot.getVersionChanges(snapshot.getBaseVersion());
+            out.writeInt(changes.size());
+            for (Change change : changes) {
+                WriteAheadLog.writeChange(out, change);
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * The restored document has no storage listener.
+     */
+    public PlainTextDocument read(
+            long id, RetentionPolicy retentionPolicy, CoalescingPolicy coalescingPolicy
+    ) throws IOException {
+        Path path = path(id);
+        byte[] data = Files.readAllBytes(path);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, Math.max(0, data.length - 4));
+        if (data.length < 8 || ByteBuffer.wrap(data, data.length - 4, 4).getInt() != (int) crc.getValue()) {
+            throw new IOException("Checkpoint " + path + " is corrupted");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4));
+        if (in.readInt() != MAGIC || in.readLong() != id) {
+            throw new IOException("Checkpoint " + path + " is not a checkpoint of document " + id);
+        }
+        String name = WriteAheadLog.readString(in);
+        int baseVersion = in.readInt();
+        Rope baseText = Rope.of(WriteAheadLog.readString(in));
+        int count = in.readInt();
+        List<ChangeImpl> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            changes.add(WriteAheadLog.readChange(in));
+        }
+        PlainTextDocument document = new PlainTextDocument(
+                id, name, baseVersion, baseText, retentionPolicy, coalescingPolicy
+        );
+        document.addChangesMany(changes);
+        return document;
+    }
+
+    public void delete(long id) throws IOException {
+        Files.deleteIfExists(path(id));
+    }
+
+    private Path path(long id) {
+        return directory.resolve(String.format("%020d", id) + SUFFIX);
+    }
+
+}
@@ -0,0 +1,44 @@
+package model;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Coalescing policy of the document change log.
+ *
+ * An insertion is merged into the last change of the log, if the last change is an insertion of the same user
+ * that ends at the position of the new one, it was added at most `window` milliseconds before and the merged text
+ * is at most `maxLength` symbols. Zero window disables coalescing.
+ * Every merged insertion still gets its own version, a client at a version inside a merged change gets the rest of it,
+ * see ChangeLog. So a run of typing is one change in the log and in the responses to the clients behind it.
+ */
+@Component
+public class CoalescingPolicy {
+
+    public static final CoalescingPolicy DISABLED = new CoalescingPolicy(0, 0);
+
+    private final long windowNanos;
+    private final int maxLength;
+
+    public CoalescingPolicy(
+            @Value("${document.coalescing.window:0}") long window,
+            @Value("${document.coalescing.max-length:256}") int maxLength
+    ) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+        this.maxLength = maxLength;
+    }
+
+    public boolean isEnabled() {
+        return windowNanos > 0 && maxLength > 0;
+    }
+
+    /*
+     * Maximum length of the merged text for a change added `elapsedNanos` after the last one, zero if it is not merged.
+     */
+    int getMaxCoalescedLength(long elapsedNanos) {
+        return isEnabled() && elapsedNanos <= windowNanos ? maxLength : 0;
+    }
+
+}
@@ -0,0 +1,71 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * All changes from one version of the document to the latest processed version, composed into position mappings.
+ * It gives the same result as transforming an edit against each change in turn, see Processor::transform,
+ * but the edit is transformed by searches in the segment trees instead of a walk over the changes.
+ * Extending the transform by one change takes O(log n) of the number of changes it already holds.
+ *
+ * Cursors are the positions between symbols, they are used for insertions. A cursor at the position of a new
+ * insertion moves after it and a cursor inside a new deletion moves to its start.
+ * Symbols are used for deletions. A deleted symbol is no longer mapped, inserted symbols are not mapped at all,
+ * so a user deletion never deletes symbols inserted after its version.
+ *
+ * The transform is extended with the new changes before each use.
+ */
+final class ComposedTransform {
+
+    private int version;
+    private final SegmentMap cursors;
+    private final SegmentMap symbols;
+
+    ComposedTransform(int fromVersion, int length) {
+        this.version = fromVersion;
+        this.cursors = new SegmentMap(length + 1);
+        this.symbols = new SegmentMap(length);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /*
+     * The changes must follow the version of the transform.
+     */
+    void extend(List<Change> changes) {
+        for (Change change : changes) {
+            if (change.getOperation() == Operation.INSERT) {
+                cursors.shift(change.getStartPosition(), change.getSymbolsCount());
+                symbols.shift(change.getStartPosition(), change.getSymbolsCount());
+            } else {
+                cursors.collapse(change.getStartPosition(), change.getSymbolsCount());
+                symbols.remove(change.getStartPosition(), change.getSymbolsCount());
+            }
+        }
+        if (!changes.isEmpty()) {
+            version = (int) changes.get(changes.size() - 1).getId();
+        }
+    }
+
+    /*
+     * Insertion stays a single edit and is shifted in place, deletion is replaced by the runs of its symbols,
+     * that are not deleted yet. The edit must be made from the version of the transform.
+     */
+    List<Edit> transform(Edit edit) {
+        int start = edit.getStartPosition();
+        if (edit.getOperation() == Operation.INSERT) {
+            edit.shiftStartPosition(cursors.map(start) - start);
+            return Collections.singletonList(edit);
+        }
+        List<Edit> edits = new ArrayList<>();
+        symbols.forEachRun(start, start + edit.getSymbolsCount(), (runStart, runLength) ->
+                edits.add(EditImpl.constructDelete(edit.getFromVersion(), runStart, runLength))
+        );
+        return edits;
+    }
+
+}
@@ -1,6 +1,7 @@
 package model;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface Document {
 
@@ -12,6 +13,14 @@ public interface Document {
 
     String getText();
 
+    int getBaseVersion();
+
     List<Change> getChanges(int fromVersion);
 
+    Resync createResync();
+
+    CompletableFuture<Integer> awaitVersion(int fromVersion);
+
+    DocumentSnapshot getSnapshot();
+
 }
@@ -0,0 +1,150 @@
+package model;
+
+import java.util.List;
+
+/*
+ * Immutable state of a document at one version, published by the writer after each change.
+ * All reads from one snapshot are consistent with each other and take no locks.
+ */
+public final class DocumentSnapshot {
+
+    private final long id;
+    private final String name;
+    private final TextBuffer text;
+    private final TextBuffer baseText;
+    private final ChangeLog changeLog;
+
+    DocumentSnapshot(long id, String name, TextBuffer text, TextBuffer baseText, ChangeLog changeLog) {
+        this.id = id;
+        this.name = name;
+        this.text = text;
+        this.baseText = baseText;
+        this.changeLog = changeLog;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getVersion() {
+        return changeLog.getVersion();
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    public int getTextLength() {
+        return text.length();
+    }
+
+    /*
+     * Range [from, to) of the text at the snapshot version, it is read from the text buffer when it is written.
+     */
+    public TextRange getTextRange(int from, int to) {
+        if (from < 0 || from > to || to > text.length()) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") is out of bounds " + text.length());
+        }
+        return new TextRange(text, getVersion(), from, to);
+    }
+
+    public int getBaseVersion() {
+        return changeLog.getBaseVersion();
+    }
+
+    /*
+     * Estimated heap size of the texts and the change log, the parts shared by the texts are counted twice.
+     */
+    long getRetainedSize() {
+        long textSize = (long) text.length() * Character.BYTES;
+        if (baseText != text) {
+            textSize += (long) baseText.length() * Character.BYTES;
+        }
+        return textSize + changeLog.getRetainedSize();
+    }
+
+    TextBuffer getTextBuffer() {
+        return text;
+    }
+
+    TextBuffer getBaseText() {
+        return baseText;
+    }
+
+    ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /*
+     * The version must not be greater than the snapshot version.
+     * Throws VersionNotRetainedException if the version is older than the document was restored at.
+     */
+    public int getLength(int version) {
+        if (version < changeLog.getFirstLengthVersion()) {
+            throw new VersionNotRetainedException(version, changeLog.getFirstLengthVersion());
+        }
+        return changeLog.getLength(version);
+    }
+
+    /*
+     * Throws VersionNotRetainedException if the changes after `fromVersion` are already compacted,
+     * in this case the client has to start from `createResync()`.
+     */
+    public List<Change> getChanges(int fromVersion) {
+        if (fromVersion < changeLog.getBaseVersion()) {
+            throw new VersionNotRetainedException(fromVersion, changeLog.getBaseVersion());
+        }
+        return changeLog.getChanges(fromVersion);
+    }
+
+    /*
+     * Changes after `fromVersion` up to `toVersion`, that must not be greater than the snapshot version.
+     * A merged change is cut at `toVersion`, see ChangeLog.
+     */
+    public List<Change> getChanges(int fromVersion, int toVersion) {
+        if (fromVersion < changeLog.getBaseVersion()) {
+            throw new VersionNotRetainedException(fromVersion, changeLog.getBaseVersion());
+        }
+        return changeLog.getChanges(fromVersion, Math.max(fromVersion, toVersion));
+    }
+
+    /*
+     * Changes after `fromVersion` one per version, as they were added, for example to be written to a checkpoint.
+     */
+    List<Change> getVersionChanges(int fromVersion) {
+        return changeLog.getVersionChanges(fromVersion);
+    }
+
+    /*
+     * The same as `getChanges`, but encoded to JSON, see EncodedChanges.
+     */
+    public EncodedChanges getEncodedChanges(int fromVersion) {
+        if (fromVersion < changeLog.getBaseVersion()) {
+            throw new VersionNotRetainedException(fromVersion, changeLog.getBaseVersion());
+        }
+        return changeLog.getEncodedChanges(fromVersion);
+    }
+
+    public Resync createResync() {
+        return new Resync(changeLog.getBaseVersion(), baseText.toString(), changeLog.getChanges(changeLog.getBaseVersion()));
+    }
+
+    DocumentSnapshot withName(String name) {
+        return new DocumentSnapshot(id, name, text, baseText, changeLog);
+    }
+
+    DocumentSnapshot withChange(Change change, TextBuffer text, int maxCoalescedLength) {
+        return new DocumentSnapshot(
+                id, name, text, baseText, changeLog.append(change, text.length(), maxCoalescedLength)
+        );
+    }
+
+    DocumentSnapshot withBase(int baseVersion, TextBuffer baseText) {
+        return new DocumentSnapshot(id, name, text, baseText, changeLog.compact(baseVersion));
+    }
+
+}
@@ -0,0 +1,87 @@
+package model;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Meters of the edit pipeline of the Processor.
+ *
+ * `processor.edit` is timed per batch of edits and tagged by the phase:
+ * validation, monitor-wait (waiting for the document monitor), transform (transforming the edits and applying them
+ * to the text) and apply (adding the changes to the document and passing them to the storage listener).
+ * In the sequencer mode one pass over the queued batches is timed as one sample of monitor-wait and apply.
+ *
+ * `processor.edit.backlog` is the number of changes an edit is transformed against,
+ * `processor.edit.delete.splits` is the number of deletions a deletion is transformed to,
+ * `processor.edit.rejected` counts the batches rejected because the edit queue of the document is full.
+ *
+ * The phases are measured with System.nanoTime, the timers keep no histogram unless it is enabled
+ * by `management.metrics.distribution.*` properties.
+ */
+final class EditMetrics {
+
+    private final Timer validation;
+    private final Timer monitorWait;
+    private final Timer transform;
+    private final Timer apply;
+    private final DistributionSummary backlog;
+    private final DistributionSummary deleteSplits;
+    private final Counter rejected;
+
+    EditMetrics(MeterRegistry registry) {
+        validation = timer(registry, "validation");
+        monitorWait = timer(registry, "monitor-wait");
+        transform = timer(registry, "transform");
+        apply = timer(registry, "apply");
+        backlog = DistributionSummary.builder("processor.edit.backlog")
+                .description("Changes an edit is transformed against")
+                .baseUnit("changes")
+                .register(registry);
+        deleteSplits = DistributionSummary.builder("processor.edit.delete.splits")
+                .description("Deletions a deletion is transformed to")
+                .register(registry);
+        rejected = Counter.builder("processor.edit.rejected")
+                .description("Batches of edits rejected by a full edit queue")
+                .register(registry);
+    }
+
+    void recordValidation(long nanos) {
+        validation.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordMonitorWait(long nanos) {
+        monitorWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordTransform(long nanos) {
+        transform.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordApply(long nanos) {
+        apply.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordBacklog(int changes) {
+        backlog.record(changes);
+    }
+
+    void recordDeleteSplits(int deletions) {
+        deleteSplits.record(deletions);
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    private static Timer timer(MeterRegistry registry, String phase) {
+        return Timer.builder("processor.edit")
+                .description("Time of a phase of processing a batch of edits")
+                .tag("phase", phase)
+                .register(registry);
+    }
+
+}
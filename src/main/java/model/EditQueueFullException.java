@@ -0,0 +1,12 @@
+package model;
+
+/*
+ * The edit queue of the document is at `processor.queue.max-depth`, the edit is not queued.
+ */
+public class EditQueueFullException extends RuntimeException {
+
+    EditQueueFullException(long documentId, int maxQueueDepth) {
+        super("Document " + documentId + " has " + maxQueueDepth + " pending edits");
+    }
+
+}
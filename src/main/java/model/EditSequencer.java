@@ -0,0 +1,75 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Lock-free multi-producer single-consumer queue of the edits of one document.
+ *
+ * A producer adds its task and then increments the size. The producer that finds the size zero
+ * schedules the drain, so at most one drain of a document runs at a time. The drain takes everything
+ * queued, processes it in one pass, then releases the processed count and repeats while the size is positive.
+ */
+class EditSequencer {
+
+    private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /*
+     * Returns true if the caller has to schedule the drain.
+     */
+    boolean offer(Task task) {
+        queue.add(task);
+        return size.getAndIncrement() == 0;
+    }
+
+    List<Task> poll() {
+        List<Task> tasks = new ArrayList<>();
+        Task task;
+        while ((task = queue.poll()) != null) {
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /*
+     * Returns true if new tasks were queued while the polled ones were processed.
+     */
+    boolean release(int count) {
+        return size.addAndGet(-count) > 0;
+    }
+
+    int size() {
+        return Math.max(size.get(), 0);
+    }
+
+    static class Task {
+
+        private final List<? extends Edit> edits;
+        private final long userId;
+        private final CompletableFuture<List<Change>> result = new CompletableFuture<>();
+
+        Task(List<? extends Edit> edits, long userId) {
+            this.edits = edits;
+            this.userId = userId;
+        }
+
+        List<? extends Edit> getEdits() {
+            return edits;
+        }
+
+        long getUserId() {
+            return userId;
+        }
+
+        CompletableFuture<List<Change>> getResult() {
+            return result;
+        }
+
+    }
+
+}
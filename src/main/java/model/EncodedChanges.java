@@ -0,0 +1,161 @@
+package model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Changes after a version as a JSON array in UTF-8, the same as a serialized list of changes.
+ *
+ * Each change is encoded into a frame once, when it is added to the change log or sealed by the next one,
+ * see ChangeLog.
+ * Frames of the following versions are stored one after another, so the array is written as a few byte ranges
+ * without any object mapping.
+ */
+public final class EncodedChanges {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final ChangeLog changeLog;
+    private final int fromVersion;
+
+    /*
+     * Frames taken on the first use, so the length and the body of a response come from one pass.
+     */
+    private ChangeLog.Frames frames;
+
+    EncodedChanges(ChangeLog changeLog, int fromVersion) {
+        this.changeLog = changeLog;
+        this.fromVersion = fromVersion;
+    }
+
+    public int size() {
+        return changeLog.getChanges(fromVersion).size();
+    }
+
+    public List<Change> getChanges() {
+        return changeLog.getChanges(fromVersion);
+    }
+
+    public long getContentLength() {
+        return 2 + getFrames().getLength();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write('[');
+        getFrames().writeTo(out);
+        out.write(']');
+    }
+
+    private ChangeLog.Frames getFrames() {
+        if (frames == null) {
+            frames = changeLog.getFrames(fromVersion);
+        }
+        return frames;
+    }
+
+    /*
+     * Frame of one change. Frames are separated by commas, the first frame of an array is written without it.
+     */
+    static byte[] encodeFrame(long id, int startPosition, Operation operation, String text, long userId) {
+        ByteBuilder frame = new ByteBuilder(text.length() + 96);
+        frame.append(",{\"id\":").append(Long.toString(id))
+                .append(",\"startPosition\":").append(Integer.toString(startPosition))
+                .append(",\"operation\":\"").append(operation.name())
+                .append("\",\"text\":\"");
+        appendEscaped(frame, text);
+        frame.append("\",\"userId\":").append(Long.toString(userId))
+                .append(",\"symbolsCount\":").append(Integer.toString(text.length()))
+                .append("}");
+        return frame.toByteArray();
+    }
+
+    /*
+     * JSON string escaping, other symbols are encoded in UTF-8.
+     */
+    private static void appendEscaped(ByteBuilder frame, String text) {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char symbol = text.charAt(i);
+            if (symbol >= 0x20 && symbol != '"' && symbol != '\\') {
+                continue;
+            }
+            frame.appendUtf8(text.substring(start, i));
+            start = i + 1;
+            switch (symbol) {
+                case '"':
+                    frame.append("\\\"");
+                    break;
+                case '\\':
+                    frame.append("\\\\");
+                    break;
+                case '\b':
+                    frame.append("\\b");
+                    break;
+                case '\t':
+                    frame.append("\\t");
+                    break;
+                case '\n':
+                    frame.append("\\n");
+                    break;
+                case '\f':
+                    frame.append("\\f");
+                    break;
+                case '\r':
+                    frame.append("\\r");
+                    break;
+                default:
+                    frame.append("\\u00").appendByte(HEX[symbol >> 4]).appendByte(HEX[symbol & 0xF]);
+            }
+        }
+        frame.appendUtf8(text.substring(start));
+    }
+
+    private static final class ByteBuilder {
+
+        private byte[] bytes;
+        private int length;
+
+        private ByteBuilder(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        /*
+         * The string must contain only ASCII symbols.
+         */
+        private ByteBuilder append(String ascii) {
+            ensureCapacity(ascii.length());
+            for (int i = 0; i < ascii.length(); i++) {
+                bytes[length++] = (byte) ascii.charAt(i);
+            }
+            return this;
+        }
+
+        private ByteBuilder appendByte(byte value) {
+            ensureCapacity(1);
+            bytes[length++] = value;
+            return this;
+        }
+
+        private void appendUtf8(String text) {
+            byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+        }
+
+        private void ensureCapacity(int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+        }
+
+    }
+
+}
@@ -1,30 +1,765 @@
 package model;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.stereotype.Repository;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
 
+/*
+ * Documents in memory, optionally persisted by the write-ahead log and checkpoints.
+ *
+ * With `storage.tiering.max-bytes` set, only the recently used documents are kept in memory up to about this size.
+ * The least recently used ones are evicted to their checkpoints and loaded back on `getDocument`, see Slot.
+ * Tiering requires the write-ahead log and checkpoints to be enabled.
+ *
+ * The number of documents, resident documents and bytes are exported as gauges, and for each document the length
+ * of its change log, the estimated size of the change log and the text length, tagged by the document id.
+ * Evicted documents report no values.
+ *
+ * The storage may be a shard of ShardedStorage. Then the ids it allocates are equal to `shard` modulo `shardCount`
+ * and its meters are tagged by `shard`.
+ */
 @Repository
-public class HashMapStorage implements Storage {
+@ConditionalOnExpression("${storage.shards:1} <= 1")
+public class HashMapStorage implements Storage, DisposableBean {
 
-    private static AtomicLong lastDocumentId = new AtomicLong(0);
+    private static final Logger log = LoggerFactory.getLogger(HashMapStorage.class);
 
-    private Map<Long, PlainTextDocument> documents = new ConcurrentHashMap<>();
+    private static final long EVICTION_PERIOD_MILLIS = 1000;
+
+    private final int shard;
+    private final int shardCount;
+    private final AtomicLong lastSequence = new AtomicLong(0);
+
+    private Map<Long, Slot> documents = new ConcurrentHashMap<>();
+
+    private final RetentionPolicy retentionPolicy;
+    private final CoalescingPolicy coalescingPolicy;
+
+    /*
+     * The listener is set after the recovery, so the replayed changes are not logged again.
+     */
+    private volatile StorageListener storageListener = StorageListener.NONE;
+
+    private final WriteAheadLog writeAheadLog;
+    private final CheckpointStore checkpointStore;
+    private final long maxResidentBytes;
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+    private ScheduledExecutorService maintenance;
+    private final MeterRegistry meterRegistry;
+    private final Tags tags;
+
+    public HashMapStorage() {
+        this(RetentionPolicy.UNLIMITED);
+    }
+
+    public HashMapStorage(RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+        this.coalescingPolicy = CoalescingPolicy.DISABLED;
+        this.writeAheadLog = null;
+        this.checkpointStore = CheckpointStore.DISABLED;
+        this.maxResidentBytes = 0;
+        this.shard = 0;
+        this.shardCount = 1;
+        this.meterRegistry = new CompositeMeterRegistry();
+        this.tags = Tags.empty();
+        registerMeters();
+    }
+
+    public HashMapStorage(RetentionPolicy retentionPolicy, WriteAheadLog writeAheadLog) throws IOException {
+        this(retentionPolicy, writeAheadLog, CheckpointStore.DISABLED);
+    }
+
+    public HashMapStorage(
+            RetentionPolicy retentionPolicy, WriteAheadLog writeAheadLog, CheckpointStore checkpointStore
+    ) throws IOException {
+        this(retentionPolicy, writeAheadLog, checkpointStore, 0);
+    }
+
+    public HashMapStorage(
+            RetentionPolicy retentionPolicy,
+            WriteAheadLog writeAheadLog,
+            CheckpointStore checkpointStore,
+            long maxResidentBytes
+    ) throws IOException {
+        this(retentionPolicy, writeAheadLog, checkpointStore, maxResidentBytes, new CompositeMeterRegistry());
+    }
+
+    public HashMapStorage(
+            RetentionPolicy retentionPolicy,
+            WriteAheadLog writeAheadLog,
+            CheckpointStore checkpointStore,
+            long maxResidentBytes,
+            MeterRegistry meterRegistry
+    ) throws IOException {
+        this(
+                retentionPolicy, CoalescingPolicy.DISABLED, writeAheadLog, checkpointStore,
+                maxResidentBytes, meterRegistry
+        );
+    }
+
+    /*
+     * If the write-ahead log is enabled, the documents are recovered before the storage is used:
+     * from their checkpoints, if checkpoints are enabled too, and from the log after them, see `recover`.
+     */
+    @Autowired
+    public HashMapStorage(
+            RetentionPolicy retentionPolicy,
+            CoalescingPolicy coalescingPolicy,
+            WriteAheadLog writeAheadLog,
+            CheckpointStore checkpointStore,
+            @Value("${storage.tiering.max-bytes:0}") long maxResidentBytes,
+            MeterRegistry meterRegistry
+    ) throws IOException {
+        this(retentionPolicy, coalescingPolicy, writeAheadLog, checkpointStore, maxResidentBytes, meterRegistry, 0, 1);
+    }
+
+    /*
+     * Shard `shard` of `shardCount`, see ShardedStorage.
+     */
+    HashMapStorage(
+            RetentionPolicy retentionPolicy,
+            CoalescingPolicy coalescingPolicy,
+            WriteAheadLog writeAheadLog,
+            CheckpointStore checkpointStore,
+            long maxResidentBytes,
+            MeterRegistry meterRegistry,
+            int shard,
+            int shardCount
+    ) throws IOException {
+        if (maxResidentBytes > 0 && !(writeAheadLog.isEnabled() && checkpointStore.isEnabled())) {
+            throw new IllegalStateException(
+                    "storage.tiering.max-bytes requires storage.wal.directory and storage.checkpoint.directory"
+            );
+        }
+        this.retentionPolicy = retentionPolicy;
+        this.coalescingPolicy = coalescingPolicy;
+        this.maxResidentBytes = maxResidentBytes;
+        this.shard = shard;
+        this.shardCount = shardCount;
+        this.meterRegistry = meterRegistry;
+        this.tags = shardCount > 1 ? Tags.of("shard", Integer.toString(shard)) : Tags.empty();
+        registerMeters();
+        if (writeAheadLog.isEnabled()) {
+            if (shardCount == 1) {
+                writeAheadLog.checkShardCount(1);
+                checkpointStore.checkShardCount(1);
+            }
+            this.writeAheadLog = writeAheadLog;
+            this.checkpointStore = checkpointStore;
+            recover();
+            StorageListener listener = maxResidentBytes > 0 ? new ResidencyListener() : writeAheadLog;
+            documents.values().stream()
+                    .filter(Slot::isResident)
+                    .forEach(slot -> slot.document.setStorageListener(listener));
+            this.storageListener = listener;
+            evict();
+            startMaintenance();
+        } else {
+            this.writeAheadLog = null;
+            this.checkpointStore = CheckpointStore.DISABLED;
+        }
+    }
 
     public PlainTextDocument createDocument(String name) {
-        PlainTextDocument document = new PlainTextDocument(lastDocumentId.incrementAndGet(), name);
-        documents.put(document.getId(), document);
+        return createDocument(lastSequence.incrementAndGet() * shardCount + shard, name);
+    }
+
+    /*
+     * The document is put before its creation is logged, so a checkpoint taken after the record includes it.
+     * Its id is returned only after the creation is logged, so it is not changed before.
+     * The ids allocated afterwards are greater than `id`.
+     */
+    public PlainTextDocument createDocument(long id, String name) {
+        lastSequence.accumulateAndGet(id / shardCount, Math::max);
+        PlainTextDocument document = new PlainTextDocument(id, name, retentionPolicy, coalescingPolicy);
+        document.setStorageListener(storageListener);
+        Slot slot = new Slot(document);
+        if (documents.putIfAbsent(id, slot) != null) {
+            return null;
+        }
+        registerMeters(slot);
+        storageListener.documentCreated(document.getId(), name).join();
+        scheduleEviction();
         return document;
     }
 
+    /*
+     * An evicted document is loaded back before it is returned.
+     */
     public PlainTextDocument getDocument(long id) {
-        return documents.get(id);
+        Slot slot = documents.get(id);
+        return slot == null ? null : slot.get();
     }
 
     public PlainTextDocument removeDocument(long id) {
-        return documents.remove(id);
+        Slot slot = documents.get(id);
+        if (slot == null) {
+            return null;
+        }
+        PlainTextDocument document = slot.get();
+        if (!documents.remove(id, slot)) {
+            return null;
+        }
+        removeMeters(slot);
+        storageListener.documentRemoved(id).join();
+        return document;
+    }
+
+    public List<Long> getDocumentIds() {
+        List<Long> ids = new ArrayList<>(documents.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /*
+     * Passes the latest snapshot of every document to the `consumer`. Evicted documents are read from their
+     * checkpoints and stay evicted.
+     */
+    public void exportDocuments(Consumer<DocumentSnapshot> consumer) throws IOException {
+        for (Slot slot : documents.values()) {
+            DocumentSnapshot snapshot;
+            try {
+                snapshot = slot.getSnapshot();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (documents.get(slot.id) == slot) {
+                consumer.accept(snapshot);
+            }
+        }
+    }
+
+    /*
+     * The documents in memory get the new listener at once, including the evicted ones, that are still weakly
+     * reachable and may be loaded back. The others get it when they are read from their checkpoints.
+     */
+    public synchronized void addStorageListener(StorageListener listener) {
+        StorageListener storageListener = this.storageListener.andThen(listener);
+        this.storageListener = storageListener;
+        documents.values().forEach(slot -> slot.setStorageListener(storageListener));
+    }
+
+    /*
+     * Estimated heap size of the documents in memory.
+     */
+    long getResidentBytes() {
+        return documents.values().stream().mapToLong(Slot::getResidentSize).sum();
+    }
+
+    private void registerMeters() {
+        Gauge.builder("storage.documents", documents, Map::size)
+                .description("Documents in the storage")
+                .tags(tags)
+                .register(meterRegistry);
+        Gauge.builder("storage.documents.resident", documents,
+                        slots -> slots.values().stream().filter(Slot::isResident).count())
+                .description("Documents in memory")
+                .tags(tags)
+                .register(meterRegistry);
+        Gauge.builder("storage.resident.bytes", this, HashMapStorage::getResidentBytes)
+                .description("Estimated heap size of the documents in memory")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private void registerMeters(Slot slot) {
+        slot.meters = Arrays.asList(
+                registerGauge(slot, "storage.document.changes", "Retained changes of the document",
+                        snapshot -> snapshot.getChangeLog().size()),
+                registerGauge(slot, "storage.document.change-log.bytes",
+                        "Estimated heap size of the change log of the document",
+                        snapshot -> snapshot.getChangeLog().getRetainedSize()),
+                registerGauge(slot, "storage.document.text.length", "Text length of the document",
+                        snapshot -> snapshot.getTextBuffer().length())
+        );
+    }
+
+    private Gauge registerGauge(
+            Slot slot, String name, String description, ToDoubleFunction<DocumentSnapshot> value
+    ) {
+        return Gauge.builder(name, slot, documentSlot -> documentSlot.getSnapshotValue(value))
+                .description(description)
+                .tags(tags)
+                .tag("document", Long.toString(slot.id))
+                .register(meterRegistry);
+    }
+
+    private void removeMeters(Slot slot) {
+        slot.meters.forEach(meterRegistry::remove);
+    }
+
+    /*
+     * Writes checkpoints of the documents changed since their last checkpoint, deletes checkpoints of removed
+     * documents and then the log segments the checkpoints cover. Writers are not blocked.
+     *
+     * Documents publish their snapshots before their changes are logged and are put to the storage before
+     * their creation is logged. So every record appended before the round starts is contained in the snapshots
+     * taken by the round, and the segments before it are not needed anymore. Evicted documents are already
+     * checkpointed, they become resident again before their next change is logged.
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (!checkpointStore.isEnabled()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        long sequence = writeAheadLog.getAppendedSequence();
+        int written = 0;
+        for (Slot slot : documents.values()) {
+            if (slot.checkpoint()) {
+                written++;
+            }
+        }
+        for (long id : checkpointStore.list()) {
+            if (!documents.containsKey(id)) {
+                checkpointStore.delete(id);
+            }
+        }
+        writeAheadLog.truncate(sequence);
+        log.debug("Checkpointed {} documents in {} ms", written, elapsedMillis(startTime));
+    }
+
+    /*
+     * Evicts the least recently used documents until the resident ones fit `storage.tiering.max-bytes`.
+     * Documents changed during the eviction stay in memory.
+     */
+    public synchronized void evict() throws IOException {
+        if (maxResidentBytes == 0) {
+            return;
+        }
+        List<Map.Entry<Long, Slot>> resident = documents.values().stream()
+                .filter(Slot::isResident)
+                .map(slot -> new AbstractMap.SimpleImmutableEntry<>(slot.accessTime, slot))
+                .sorted(Map.Entry.comparingByKey())
+                .collect(Collectors.toList());
+        long residentBytes = resident.stream().mapToLong(entry -> entry.getValue().getResidentSize()).sum();
+        int evicted = 0;
+        for (Map.Entry<Long, Slot> entry : resident) {
+            if (residentBytes <= maxResidentBytes) {
+                break;
+            }
+            long size = entry.getValue().getResidentSize();
+            if (entry.getValue().evict()) {
+                residentBytes -= size;
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            log.debug("Evicted {} documents, {} bytes are resident", evicted, residentBytes);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (maintenance != null) {
+            maintenance.shutdown();
+            maintenance.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /*
+     * Checkpoints and evictions run on one background thread.
+     */
+    private void startMaintenance() {
+        boolean checkpoints = checkpointStore.isEnabled() && checkpointStore.getInterval() > 0;
+        if (!checkpoints && maxResidentBytes == 0) {
+            return;
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(
+                    runnable, shardCount > 1 ? "storage-maintenance-" + shard : "storage-maintenance"
+            );
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (checkpoints) {
+            long interval = checkpointStore.getInterval();
+            maintenance.scheduleWithFixedDelay(() -> runMaintenance("Checkpoint", this::checkpoint),
+                    interval, interval, TimeUnit.MILLISECONDS);
+        }
+        if (maxResidentBytes > 0) {
+            maintenance.scheduleWithFixedDelay(() -> runMaintenance("Eviction", this::evict),
+                    EVICTION_PERIOD_MILLIS, EVICTION_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Documents grow between the periodic evictions, new and loaded documents are evicted for at once.
+     */
+    private void scheduleEviction() {
+        if (maxResidentBytes == 0 || maintenance == null || !evictionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        maintenance.execute(() -> {
+            evictionScheduled.set(false);
+            runMaintenance("Eviction", this::evict);
+        });
+    }
+
+    private static void runMaintenance(String name, MaintenanceTask task) {
+        try {
+            task.run();
+        } catch (IOException | RuntimeException e) {
+            log.warn(name + " failed", e);
+        }
+    }
+
+    /*
+     * Loads the checkpoints, reads the log after them and replays it. Loading and replaying are parallel across
+     * the documents on a fork-join pool, only the reading of the log is sequential.
+     * With tiering, checkpoints are loaded only for the documents changed in the log.
+     */
+    private void recover() throws IOException {
+        long startTime = System.nanoTime();
+        Map<Long, Long> recoveryTimes = new ConcurrentHashMap<>();
+        Recovery recovery = new Recovery();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            if (checkpointStore.isEnabled()) {
+                List<Long> ids = checkpointStore.list();
+                ids.forEach(id -> lastSequence.accumulateAndGet(id / shardCount, Math::max));
+                if (maxResidentBytes > 0) {
+                    ids.forEach(id -> documents.put(id, new Slot(id)));
+                } else {
+                    invoke(pool, () -> ids.parallelStream().forEach(id -> {
+                        long documentStartTime = System.nanoTime();
+                        Slot slot = new Slot(id);
+                        slot.get();
+                        documents.put(id, slot);
+                        recoveryTimes.merge(id, System.nanoTime() - documentStartTime, Long::sum);
+                    }));
+                }
+            }
+            writeAheadLog.recover(recovery);
+            invoke(pool, () -> recovery.pendingChanges.entrySet().parallelStream().forEach(entry -> {
+                long documentStartTime = System.nanoTime();
+                PlainTextDocument document = documents.get(entry.getKey()).get();
+                for (PendingChanges changes : entry.getValue()) {
+                    replay(document, changes.fromVersion, changes.changes);
+                }
+                recoveryTimes.merge(entry.getKey(), System.nanoTime() - documentStartTime, Long::sum);
+            }));
+        } finally {
+            pool.shutdown();
+        }
+        for (Slot slot : documents.values()) {
+            registerMeters(slot);
+            if (slot.isResident()) {
+                log.info(
+                        "Recovered document {} at version {} in {} ms",
+                        slot.id, slot.document.getVersion(),
+                        TimeUnit.NANOSECONDS.toMillis(recoveryTimes.getOrDefault(slot.id, 0L))
+                );
+            }
+        }
+        log.info("Recovered {} documents in {} ms", documents.size(), elapsedMillis(startTime));
+    }
+
+    private static void invoke(ForkJoinPool pool, Runnable task) throws IOException {
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Recovery is interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Recovery failed", e.getCause());
+        }
+    }
+
+    /*
+     * Changes the document already has, from its checkpoint or the previous records, are skipped.
+     */
+    @SuppressWarnings("unchecked")
+    private static void replay(PlainTextDocument document, int fromVersion, List<? extends Change> changes) {
+        int skipped = document.getVersion() - fromVersion;
+        if (skipped < 0) {
+            throw new UncheckedIOException(new IOException(
+                    "Write-ahead log misses changes of document " + document.getId() +
+                            " after version " + document.getVersion()
+            ));
+        }
+        if (skipped < changes.size()) {
+            document.addChangesMany((List<ChangeImpl>) changes.subList(skipped, changes.size()));
+        }
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /*
+     * A document, that is either resident or evicted to its checkpoint.
+     *
+     * An evicted document is only weakly referenced. While a caller still holds it, it is returned again
+     * instead of being loaded, and a change of it makes it resident again, see ResidencyListener.
+     * So there is never more than one instance of a document. Loading is done under the monitor of the slot,
+     * so concurrent callers wait for one load.
+     *
+     * The lock order is the write lock of the document, then the monitor of the slot.
+     */
+    private final class Slot {
+
+        private final long id;
+        private volatile PlainTextDocument document;
+        private WeakReference<PlainTextDocument> evictedDocument;
+        private volatile DocumentSnapshot checkpointed;
+        private List<Meter> meters = Collections.emptyList();
+
+        /*
+         * Updated without synchronization, eviction only needs an approximate order.
+         */
+        private long accessTime = System.nanoTime();
+
+        private Slot(PlainTextDocument document) {
+            this.id = document.getId();
+            this.document = document;
+        }
+
+        /*
+         * Slot of a document, that is only in its checkpoint.
+         */
+        private Slot(long id) {
+            this.id = id;
+        }
+
+        private boolean isResident() {
+            return document != null;
+        }
+
+        private long getResidentSize() {
+            PlainTextDocument document = this.document;
+            return document == null ? 0 : document.getSnapshot().getRetainedSize();
+        }
+
+        /*
+         * NaN for an evicted document, the gauges do not load it.
+         */
+        private double getSnapshotValue(ToDoubleFunction<DocumentSnapshot> value) {
+            PlainTextDocument document = this.document;
+            return document == null ? Double.NaN : value.applyAsDouble(document.getSnapshot());
+        }
+
+        /*
+         * The snapshot of an evicted document is read from its checkpoint, the document is not loaded.
+         */
+        private DocumentSnapshot getSnapshot() {
+            PlainTextDocument document = this.document;
+            if (document != null) {
+                return document.getSnapshot();
+            }
+            synchronized (this) {
+                document = this.document != null ? this.document :
+                        evictedDocument == null ? null : evictedDocument.get();
+                if (document != null) {
+                    return document.getSnapshot();
+                }
+                try {
+                    return checkpointStore.read(id, retentionPolicy, coalescingPolicy).getSnapshot();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /*
+         * A load in progress holds the monitor, so it sets the new listener itself or is updated here after it.
+         */
+        private synchronized void setStorageListener(StorageListener storageListener) {
+            PlainTextDocument document = this.document != null ? this.document :
+                    evictedDocument == null ? null : evictedDocument.get();
+            if (document != null) {
+                document.setStorageListener(storageListener);
+            }
+        }
+
+        private PlainTextDocument get() {
+            accessTime = System.nanoTime();
+            PlainTextDocument document = this.document;
+            return document != null ? document : load();
+        }
+
+        private synchronized PlainTextDocument load() {
+            if (document != null) {
+                return document;
+            }
+            PlainTextDocument loadedDocument = evictedDocument == null ? null : evictedDocument.get();
+            if (loadedDocument == null) {
+                try {
+                    loadedDocument = checkpointStore.read(id, retentionPolicy, coalescingPolicy);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                checkpointed = loadedDocument.getSnapshot();
+            }
+            loadedDocument.setStorageListener(storageListener);
+            evictedDocument = null;
+            document = loadedDocument;
+            scheduleEviction();
+            return loadedDocument;
+        }
+
+        /*
+         * Returns true if a checkpoint is written.
+         */
+        private boolean checkpoint() throws IOException {
+            PlainTextDocument document = this.document;
+            if (document == null) {
+                return false;
+            }
+            DocumentSnapshot snapshot = document.getSnapshot();
+            if (checkpointed == snapshot) {
+                return false;
+            }
+            checkpointStore.write(snapshot);
+            checkpointed = snapshot;
+            return true;
+        }
+
+        /*
+         * The document is checkpointed without locks and evicted only if it is not changed meanwhile.
+         */
+        private boolean evict() throws IOException {
+            PlainTextDocument document = this.document;
+            if (document == null) {
+                return false;
+            }
+            DocumentSnapshot snapshot = document.getSnapshot();
+            if (checkpointed != snapshot) {
+                checkpointStore.write(snapshot);
+                checkpointed = snapshot;
+            }
+            return document.runIfUnchanged(snapshot, () -> {
+                synchronized (this) {
+                    evictedDocument = new WeakReference<>(document);
+                    this.document = null;
+                    checkpointed = null;
+                }
+            });
+        }
+
+    }
+
+    /*
+     * Makes an evicted document resident before its change is logged, so the change is not lost with it.
+     * It is called under the write lock of the document.
+     */
+    private class ResidencyListener implements StorageListener {
+
+        @Override
+        public boolean isAvailable() {
+            return writeAheadLog.isAvailable();
+        }
+
+        @Override
+        public CompletableFuture<Void> documentCreated(long id, String name) {
+            return writeAheadLog.documentCreated(id, name);
+        }
+
+        @Override
+        public CompletableFuture<Void> documentRenamed(long id, String name) {
+            makeResident(id);
+            return writeAheadLog.documentRenamed(id, name);
+        }
+
+        @Override
+        public CompletableFuture<Void> documentRemoved(long id) {
+            return writeAheadLog.documentRemoved(id);
+        }
+
+        @Override
+        public CompletableFuture<Void> changesAdded(long id, int fromVersion, List<? extends Change> changes) {
+            makeResident(id);
+            return writeAheadLog.changesAdded(id, fromVersion, changes);
+        }
+
+        private void makeResident(long id) {
+            Slot slot = documents.get(id);
+            if (slot != null && !slot.isResident()) {
+                slot.load();
+            }
+        }
+
+    }
+
+    /*
+     * Reads the write-ahead log. Documents are created, renamed and removed at once, their changes are collected
+     * to be replayed in parallel. Changes of removed documents are dropped.
+     */
+    private class Recovery implements StorageListener {
+
+        private final Map<Long, List<PendingChanges>> pendingChanges = new HashMap<>();
+
+        @Override
+        public CompletableFuture<Void> documentCreated(long id, String name) {
+            documents.putIfAbsent(id, new Slot(new PlainTextDocument(id, name, retentionPolicy, coalescingPolicy)));
+            lastSequence.accumulateAndGet(id / shardCount, Math::max);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> documentRenamed(long id, String name) {
+            Slot slot = documents.get(id);
+            if (slot != null) {
+                slot.get().setName(name);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> documentRemoved(long id) {
+            documents.remove(id);
+            pendingChanges.remove(id);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> changesAdded(long id, int fromVersion, List<? extends Change> changes) {
+            if (documents.containsKey(id)) {
+                pendingChanges.computeIfAbsent(id, key -> new ArrayList<>())
+                        .add(new PendingChanges(fromVersion, changes));
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+    }
+
+    private static final class PendingChanges {
+
+        private final int fromVersion;
+        private final List<? extends Change> changes;
+
+        private PendingChanges(int fromVersion, List<? extends Change> changes) {
+            this.fromVersion = fromVersion;
+            this.changes = changes;
+        }
+
+    }
+
+    private interface MaintenanceTask {
+        void run() throws IOException;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+package model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * In-process replication transport: the records are passed to the followers in the same JVM on one thread.
+ * It is the default transport, other transports replace it as primary beans.
+ */
+@Component
+public class LoopbackTransport implements ReplicationTransport, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(LoopbackTransport.class);
+
+    private final List<Consumer<ReplicationRecord>> followers = new CopyOnWriteArrayList<>();
+    private volatile ExecutorService delivery;
+
+    @Override
+    public void publish(ReplicationRecord record) {
+        ExecutorService delivery = this.delivery;
+        if (delivery == null) {
+            return;
+        }
+        delivery.execute(() -> {
+            for (Consumer<ReplicationRecord> follower : followers) {
+                try {
+                    follower.accept(record);
+                } catch (RuntimeException e) {
+                    log.warn("Follower failed to apply a record of document " + record.getDocumentId(), e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public synchronized void subscribe(Consumer<ReplicationRecord> follower) {
+        if (delivery == null) {
+            delivery = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replication-loopback");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        followers.add(follower);
+    }
+
+    @Override
+    public synchronized void destroy() throws InterruptedException {
+        if (delivery != null) {
+            delivery.shutdown();
+            delivery.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+}
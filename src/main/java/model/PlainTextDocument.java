@@ -3,23 +3,83 @@ package model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class PlainTextDocument implements Document {
 
+    private static final int SESSION_COMPACTION_MIN_VERSIONS = 16;
+
     private final long id;
-    private String name;
 
-    private int version = 0;
-    private String text = "";
-    private final List<Change> changeLog = new ArrayList<>();
+    /*
+     * Readers take the current snapshot and never lock, writers are serialized by the write lock
+     * and publish a new snapshot once their changes are applied.
+     */
+    private volatile DocumentSnapshot snapshot;
+    private final Lock writeLock = new ReentrantLock();
+
+    /*
+     * Changes up to the base version are folded into the base text and removed from the change log.
+     */
+    private final RetentionPolicy retentionPolicy;
+    private long changeLogBytes = 0;
+
+    /*
+     * Typing runs are merged into one change of the log, see CoalescingPolicy.
+     */
+    private final CoalescingPolicy coalescingPolicy;
+    private long lastChangeTime = 0;
+
+    /*
+     * With session tracking, changes up to the lowest acknowledged version are folded as well, see RetentionPolicy.
+     * The low-water mark is checked again after the log grows by an eighth of the versions after it.
+     */
+    private final SessionVersions sessionVersions = new SessionVersions();
+    private final long sessionTrackingStart;
+    private int nextSessionCompactionVersion = 0;
+
+    private final Set<CompletableFuture<Integer>> versionWaiters = ConcurrentHashMap.newKeySet();
 
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final EditSequencer sequencer = new EditSequencer();
+
+    private final TransformCache transformCache = new TransformCache();
+
+    private volatile StorageListener storageListener = StorageListener.NONE;
 
     PlainTextDocument(long id, String name) {
+        this(id, name, RetentionPolicy.UNLIMITED);
+    }
+
+    PlainTextDocument(long id, String name, RetentionPolicy retentionPolicy) {
+        this(id, name, retentionPolicy, CoalescingPolicy.DISABLED);
+    }
+
+    PlainTextDocument(long id, String name, RetentionPolicy retentionPolicy, CoalescingPolicy coalescingPolicy) {
+        this(id, name, 0, Rope.EMPTY, retentionPolicy, coalescingPolicy);
+    }
+
+    /*
+     * Document restored at `version`, for example from a checkpoint. Older versions are not known to it.
+     */
+    PlainTextDocument(
+            long id,
+            String name,
+            int version,
+            TextBuffer text,
+            RetentionPolicy retentionPolicy,
+            CoalescingPolicy coalescingPolicy
+    ) {
         this.id = id;
-        this.name = name;
+        this.retentionPolicy = retentionPolicy;
+        this.coalescingPolicy = coalescingPolicy;
+        this.sessionTrackingStart = System.nanoTime() + retentionPolicy.getSessionTimeoutNanos();
+        ChangeLog changeLog = ChangeLog.create(version, text.length(), coalescingPolicy.isEnabled());
+        this.snapshot = new DocumentSnapshot(id, name, text, text, changeLog);
     }
 
     public long getId() {
@@ -27,86 +87,252 @@ public class PlainTextDocument implements Document {
     }
 
     public String getName() {
-        return name;
+        return snapshot.getName();
     }
 
     public int getVersion() {
-        readWriteLock.readLock().lock();
-        try {
-            return version;
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
+        return snapshot.getVersion();
     }
 
     public String getText() {
-        readWriteLock.readLock().lock();
+        return snapshot.getText();
+    }
+
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /*
+     * Text buffers are immutable, the returned buffer stays consistent while the document is being changed.
+     */
+    TextBuffer getTextBuffer() {
+        return snapshot.getTextBuffer();
+    }
+
+    EditSequencer getSequencer() {
+        return sequencer;
+    }
+
+    TransformCache getTransformCache() {
+        return transformCache;
+    }
+
+    public int getBaseVersion() {
+        return snapshot.getBaseVersion();
+    }
+
+    /*
+     * Throws VersionNotRetainedException if the changes after `fromVersion` are already compacted,
+     * in this case the client has to start from `createResync()`.
+     */
+    public List<Change> getChanges(int fromVersion) {
+        return snapshot.getChanges(fromVersion);
+    }
+
+    public Resync createResync() {
+        return snapshot.createResync();
+    }
+
+    /*
+     * Returns a future, that completes with the document version as soon as it gets greater than `fromVersion`.
+     * Waiting does not hold a thread. Cancelling the future stops waiting.
+     *
+     * The waiter is registered before the version is checked and the writer publishes the version before it takes
+     * the waiters, so a change between registration and check is never missed.
+     */
+    public CompletableFuture<Integer> awaitVersion(int fromVersion) {
+        CompletableFuture<Integer> waiter = new CompletableFuture<>();
+        versionWaiters.add(waiter);
+        waiter.whenComplete((result, e) -> versionWaiters.remove(waiter));
+        int currentVersion = getVersion();
+        if (currentVersion > fromVersion) {
+            waiter.complete(currentVersion);
+        }
+        return waiter;
+    }
+
+    /*
+     * The session has the document at `version` and may request the changes after it.
+     * It is ignored unless the retention policy tracks sessions.
+     */
+    public void acknowledge(String sessionId, int version) {
+        if (retentionPolicy.tracksSessions()) {
+            sessionVersions.acknowledge(sessionId, version, System.nanoTime());
+        }
+    }
+
+    /*
+     * The session is closed and needs no changes anymore.
+     */
+    public void removeSession(String sessionId) {
+        sessionVersions.remove(sessionId);
+    }
+
+    int getSessionCount() {
+        return sessionVersions.size();
+    }
+
+    /*
+     * Returns when the storage listener acknowledges the new name.
+     * Throws StorageUnavailableException if the name can no longer be stored.
+     */
+    public void setName(String name) {
+        CompletableFuture<Void> acknowledged;
+        writeLock.lock();
         try {
-            return text;
+            checkStorageAvailable();
+            snapshot = snapshot.withName(name);
+            acknowledged = storageListener.documentRenamed(id, name);
         } finally {
-            readWriteLock.readLock().unlock();
+            writeLock.unlock();
         }
+        acknowledged.join();
     }
 
-    public List<Change> getChanges(int fromVersion) {
-        readWriteLock.readLock().lock();
+    /*
+     * The listener is set before the document is shared, it is not called for the changes made before.
+     */
+    void setStorageListener(StorageListener storageListener) {
+        this.storageListener = storageListener;
+    }
+
+    /*
+     * Runs the action under the write lock if the document is still at the `expected` snapshot.
+     * Returns false if it was changed since, see HashMapStorage.
+     */
+    boolean runIfUnchanged(DocumentSnapshot expected, Runnable action) {
+        writeLock.lock();
         try {
-            if (fromVersion == version) {
-                return Collections.emptyList();
+            if (snapshot != expected) {
+                return false;
             }
-            return changeLog.subList(fromVersion, changeLog.size());
+            action.run();
+            return true;
         } finally {
-            readWriteLock.readLock().unlock();
+            writeLock.unlock();
         }
     }
 
-    public void setName(String name) {
-        this.name = name;
+    /*
+     * The version must not be greater than the current document version.
+     */
+    public int getLength(int version) {
+        return snapshot.getLength(version);
     }
 
-    public int getLength(int version) {
-        if (version == 0) {
-            return 0;
+    /*
+     * Returns the future of the storage listener, that completes when the changes may be acknowledged.
+     * The changes are visible to readers at once.
+     *
+     * The snapshot is published before the listener is called, so any snapshot taken after the listener
+     * has received the changes contains them, see HashMapStorage.checkpoint.
+     *
+     * Throws StorageUnavailableException and leaves the document unchanged if the changes can no longer be stored.
+     * A change that fails to be stored afterwards stays applied, only its future fails.
+     */
+    CompletableFuture<Void> addChangesMany(List<ChangeImpl> changes) {
+        if (changes.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
         }
-        readWriteLock.readLock().lock();
+        CompletableFuture<Void> acknowledged;
+        writeLock.lock();
         try {
-            return text.length() - changeLog.stream().skip(version).mapToInt(
-                    change -> change.getText().length() * (change.getOperation() == Operation.INSERT ? 1 : -1)
-            ).sum();
+            checkStorageAvailable();
+            DocumentSnapshot nextSnapshot = snapshot;
+            int fromVersion = nextSnapshot.getVersion();
+            for (ChangeImpl change : changes) {
+                nextSnapshot = processChange(nextSnapshot, change);
+            }
+            snapshot = compact(nextSnapshot);
+            acknowledged = storageListener.changesAdded(id, fromVersion, changes);
         } finally {
-            readWriteLock.readLock().unlock();
+            writeLock.unlock();
         }
+        notifyVersionWaiters();
+        return acknowledged;
     }
 
-    void addChangesMany(List<ChangeImpl> changes) {
-        readWriteLock.writeLock().lock();
-        try {
-            changes.forEach(this::processChange);
-        } finally {
-            readWriteLock.writeLock().unlock();
+    CompletableFuture<Void> addChange(ChangeImpl change) {
+        return addChangesMany(Collections.singletonList(change));
+    }
+
+    private void checkStorageAvailable() {
+        if (!storageListener.isAvailable()) {
+            throw new StorageUnavailableException(id);
         }
     }
 
-    void addChange(ChangeImpl change) {
-        readWriteLock.writeLock().lock();
-        try {
-            processChange(change);
-        } finally {
-            readWriteLock.writeLock().unlock();
+    /*
+     * Waiters are completed in the common pool, so their callbacks never run on the writer thread.
+     */
+    private void notifyVersionWaiters() {
+        if (versionWaiters.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<Integer>> waiters = new ArrayList<>(versionWaiters);
+        versionWaiters.removeAll(waiters);
+        int currentVersion = getVersion();
+        ForkJoinPool.commonPool().execute(() -> waiters.forEach(waiter -> waiter.complete(currentVersion)));
+    }
+
+    private DocumentSnapshot processChange(DocumentSnapshot snapshot, ChangeImpl change) {
+        change.setId(snapshot.getVersion() + 1);
+        changeLogBytes += change.getSymbolsCount();
+        int maxCoalescedLength = 0;
+        if (coalescingPolicy.isEnabled()) {
+            long now = System.nanoTime();
+            maxCoalescedLength = coalescingPolicy.getMaxCoalescedLength(now - lastChangeTime);
+            lastChangeTime = now;
+        }
+        return snapshot.withChange(change, apply(snapshot.getTextBuffer(), change), maxCoalescedLength);
+    }
+
+    /*
+     * Folds the oldest changes into the base text while the change log exceeds the retention policy
+     * and up to the version acknowledged by all live sessions.
+     */
+    private DocumentSnapshot compact(DocumentSnapshot snapshot) {
+        ChangeLog changeLog = snapshot.getChangeLog();
+        int acknowledgedVersion = getAcknowledgedVersion(changeLog);
+        if (acknowledgedVersion <= changeLog.getBaseVersion() &&
+                !retentionPolicy.needsCompaction(changeLog.size(), changeLogBytes)) {
+            return snapshot;
+        }
+        int baseVersion = changeLog.getBaseVersion();
+        TextBuffer compactedText = snapshot.getBaseText();
+        while (baseVersion < acknowledgedVersion ||
+                retentionPolicy.exceeds(changeLog.getVersion() - baseVersion, changeLogBytes)) {
+            Change change = changeLog.get(++baseVersion);
+            compactedText = apply(compactedText, change);
+            changeLogBytes -= change.getSymbolsCount();
+        }
+        return snapshot.withBase(baseVersion, compactedText);
+    }
+
+    /*
+     * Lowest version of the live sessions when it is due to be checked, otherwise the base version.
+     */
+    private int getAcknowledgedVersion(ChangeLog changeLog) {
+        int version = changeLog.getVersion();
+        if (!retentionPolicy.tracksSessions() || version < nextSessionCompactionVersion) {
+            return changeLog.getBaseVersion();
+        }
+        long now = System.nanoTime();
+        if (now - sessionTrackingStart < 0) {
+            return changeLog.getBaseVersion();
         }
+        int lowWaterMark = sessionVersions.getLowWaterMark(version, now, retentionPolicy.getSessionTimeoutNanos());
+        nextSessionCompactionVersion =
+                version + Math.max(SESSION_COMPACTION_MIN_VERSIONS, (version - lowWaterMark) / 8);
+        return lowWaterMark;
     }
 
-    private void processChange(ChangeImpl change) {
+    static TextBuffer apply(TextBuffer text, Change change) {
         if (change.getOperation() == Operation.INSERT) {
-            text = new StringBuilder(text).insert(change.getStartPosition(), change.getText()).toString();
+            return text.insert(change.getStartPosition(), change.getText());
         } else {
-            text = new StringBuilder(text).delete(
-                    change.getStartPosition(), change.getStartPosition() + change.getText().length()
-            ).toString();
+            return text.delete(change.getStartPosition(), change.getSymbolsCount());
         }
-        version++;
-        change.setId(version);
-        changeLog.add(change);
     }
 
-}
\ No newline at end of file
+}
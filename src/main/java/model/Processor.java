@@ -1,44 +1,367 @@
 package model;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/*
+ * The application processor drains the edit queues of the documents on its own pool of `processor.threads` threads,
+ * one drain per document at a time, see `submitEdits`. A document queues at most `processor.queue.max-depth` batches,
+ * zero means no limit.
+ */
 @Component
-public class Processor {
+public class Processor implements DisposableBean {
+
+    private static final int DEFAULT_TRANSFORM_CACHE_MIN_CHANGES = 64;
+
+    private final boolean sequencerEnabled;
+    private final Executor executor;
+
+    /*
+     * A single edit made that many changes ago is transformed by the composed transform, see TransformCache.
+     * Zero disables the cache.
+     */
+    private final int transformCacheMinChanges;
+
+    private final int maxQueueDepth;
+    private final EditMetrics metrics;
+
+    /*
+     * The pool created by the processor, it is shut down with it.
+     */
+    private ExecutorService ownExecutor;
+
+    public Processor() {
+        this(false, DEFAULT_TRANSFORM_CACHE_MIN_CHANGES, ForkJoinPool.commonPool());
+    }
+
+    public Processor(boolean sequencerEnabled, int transformCacheMinChanges) {
+        this(sequencerEnabled, transformCacheMinChanges, new CompositeMeterRegistry());
+    }
+
+    public Processor(boolean sequencerEnabled, int transformCacheMinChanges, MeterRegistry meterRegistry) {
+        this(sequencerEnabled, transformCacheMinChanges, ForkJoinPool.commonPool(), meterRegistry);
+    }
+
+    @Autowired
+    public Processor(
+            @Value("${processor.sequencer.enabled:false}") boolean sequencerEnabled,
+            @Value("${processor.transform-cache.min-changes:" + DEFAULT_TRANSFORM_CACHE_MIN_CHANGES + "}")
+                    int transformCacheMinChanges,
+            @Value("${processor.threads:0}") int threads,
+            @Value("${processor.queue.max-depth:1024}") int maxQueueDepth,
+            MeterRegistry meterRegistry
+    ) {
+        this(sequencerEnabled, transformCacheMinChanges, createExecutor(threads), maxQueueDepth, meterRegistry);
+        this.ownExecutor = (ExecutorService) executor;
+    }
+
+    Processor(boolean sequencerEnabled, Executor executor) {
+        this(sequencerEnabled, DEFAULT_TRANSFORM_CACHE_MIN_CHANGES, executor);
+    }
+
+    Processor(boolean sequencerEnabled, int transformCacheMinChanges, Executor executor) {
+        this(sequencerEnabled, transformCacheMinChanges, executor, new CompositeMeterRegistry());
+    }
+
+    Processor(boolean sequencerEnabled, int transformCacheMinChanges, Executor executor, MeterRegistry meterRegistry) {
+        this(sequencerEnabled, transformCacheMinChanges, executor, 0, meterRegistry);
+    }
+
+    Processor(
+            boolean sequencerEnabled,
+            int transformCacheMinChanges,
+            Executor executor,
+            int maxQueueDepth,
+            MeterRegistry meterRegistry
+    ) {
+        this.sequencerEnabled = sequencerEnabled;
+        this.transformCacheMinChanges = transformCacheMinChanges;
+        this.executor = executor;
+        this.maxQueueDepth = maxQueueDepth;
+        this.metrics = new EditMetrics(meterRegistry);
+    }
+
+    /*
+     * Zero threads means one per processor.
+     */
+    private static ExecutorService createExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "processor-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+            ownExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
 
     /*
      * Edit is a user action from a user local version of document that is not processed yet.
      * List of new changes is a diff between user local version and server version of document.
      * List of new changes is changes, that were processed by the server, but not seen by editing user.
      */
-    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     public List<Change> processEdit(PlainTextDocument document, Edit edit, long userId) throws EditValidationException {
-        validateEdit(document, edit);
+        return processEdits(document, Collections.singletonList(edit), userId);
+    }
+
+    /*
+     * Batch of edits from the local history of one user, all made from the same server version.
+     * Each edit is made on the local text after the previous edits of the batch.
+     *
+     * The edits are transformed one by one. After each edit, the new changes are transformed in turn
+     * to the local text after this edit, so the next edit of the batch is transformed against them.
+     * All transformed edits are added to the document at once and one list of changes is returned.
+     *
+     * In the sequencer mode the batch is passed to the document sequencer and the caller waits for the result.
+     */
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    public List<Change> processEdits(
+            PlainTextDocument document, List<? extends Edit> edits, long userId
+    ) throws EditValidationException {
+        if (sequencerEnabled) {
+            try {
+                return submitEdits(document, edits, userId).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof EditValidationException) {
+                    throw (EditValidationException) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        long start = System.nanoTime();
+        validateEdits(document, edits);
+        long validated = System.nanoTime();
+        long locked;
+        long transformed;
+        long applied;
+        CompletableFuture<Void> acknowledged;
+        DocumentSnapshot result;
         synchronized (document) {
-            if (edit.getOperation() == Operation.INSERT) {
-                processInsert(document, edit, userId);
-            } else {
-                processDelete(document, edit, userId);
+            locked = System.nanoTime();
+            DocumentSnapshot snapshot = document.getSnapshot();
+            List<ChangeImpl> addedChanges = new ArrayList<>();
+            transformEdits(document, snapshot, snapshot.getTextBuffer(), edits, userId, addedChanges);
+            transformed = System.nanoTime();
+            acknowledged = document.addChangesMany(addedChanges);
+            result = document.getSnapshot();
+            applied = System.nanoTime();
+        }
+        metrics.recordValidation(validated - start);
+        metrics.recordMonitorWait(locked - validated);
+        metrics.recordTransform(transformed - locked);
+        metrics.recordApply(applied - transformed);
+        acknowledged.join();
+        return result.getChanges(edits.get(0).getFromVersion());
+    }
+
+    /*
+     * Passes the batch of edits to the single writer of the document, see EditSequencer.
+     * The result is the same as of `processEdits`, a rejected batch completes with EditValidationException.
+     * If the queue of the document is full, the result completes with EditQueueFullException at once.
+     */
+    public CompletableFuture<List<Change>> submitEdits(PlainTextDocument document, List<? extends Edit> edits, long userId) {
+        if (maxQueueDepth > 0 && document.getSequencer().size() >= maxQueueDepth) {
+            metrics.recordRejected();
+            CompletableFuture<List<Change>> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new EditQueueFullException(document.getId(), maxQueueDepth));
+            return rejected;
+        }
+        EditSequencer.Task task = new EditSequencer.Task(edits, userId);
+        if (document.getSequencer().offer(task)) {
+            executor.execute(() -> drainEdits(document));
+        }
+        return task.getResult();
+    }
+
+    private void drainEdits(PlainTextDocument document) {
+        EditSequencer sequencer = document.getSequencer();
+        List<EditSequencer.Task> tasks;
+        do {
+            tasks = sequencer.poll();
+            try {
+                processTasks(document, tasks);
+            } catch (RuntimeException e) {
+                tasks.forEach(task -> task.getResult().completeExceptionally(e));
+            }
+        } while (sequencer.release(tasks.size()));
+    }
+
+    /*
+     * All queued batches are transformed and added to the document in one pass.
+     * Each batch is transformed against the changes of the previous batches of the pass.
+     * The results are completed when the storage listener acknowledges the changes, without waiting in the drain.
+     */
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    private void processTasks(PlainTextDocument document, List<EditSequencer.Task> tasks) {
+        List<EditSequencer.Task> processedTasks = new ArrayList<>();
+        List<Object> results = new ArrayList<>();
+        CompletableFuture<Void> acknowledged;
+        long start = System.nanoTime();
+        long locked;
+        long transformed;
+        synchronized (document) {
+            locked = System.nanoTime();
+            DocumentSnapshot snapshot = document.getSnapshot();
+            TextBuffer documentText = snapshot.getTextBuffer();
+            List<ChangeImpl> addedChanges = new ArrayList<>();
+            transformed = locked;
+            for (EditSequencer.Task task : tasks) {
+                try {
+                    validateEdits(document, task.getEdits());
+                    long validated = System.nanoTime();
+                    metrics.recordValidation(validated - transformed);
+                    documentText = transformEdits(
+                            document, snapshot, documentText, task.getEdits(), task.getUserId(), addedChanges
+                    );
+                    transformed = System.nanoTime();
+                    metrics.recordTransform(transformed - validated);
+                    processedTasks.add(task);
+                } catch (EditValidationException e) {
+                    transformed = System.nanoTime();
+                    task.getResult().completeExceptionally(e);
+                }
+            }
+            acknowledged = document.addChangesMany(addedChanges);
+            for (EditSequencer.Task task : processedTasks) {
+                try {
+                    results.add(document.getChanges(task.getEdits().get(0).getFromVersion()));
+                } catch (VersionNotRetainedException e) {
+                    results.add(e);
+                }
+            }
+        }
+        metrics.recordMonitorWait(locked - start);
+        metrics.recordApply(System.nanoTime() - transformed);
+        acknowledged.whenComplete((ignored, e) -> {
+            for (int i = 0; i < processedTasks.size(); i++) {
+                Object result = results.get(i);
+                if (e != null) {
+                    processedTasks.get(i).getResult().completeExceptionally(e);
+                } else if (result instanceof VersionNotRetainedException) {
+                    processedTasks.get(i).getResult().completeExceptionally((VersionNotRetainedException) result);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<Change> changes = (List<Change>) result;
+                    processedTasks.get(i).getResult().complete(changes);
+                }
+            }
+        });
+    }
+
+    /*
+     * Transforms the batch of edits of one user against the new changes of the document and appends the result
+     * to `addedChanges`. The changes already in `addedChanges` are processed, but not added to the document yet,
+     * `documentText` is the text after them. Returns the text after the batch.
+     */
+    private TextBuffer transformEdits(
+            PlainTextDocument document,
+            DocumentSnapshot snapshot,
+            TextBuffer documentText,
+            List<? extends Edit> edits,
+            long userId,
+            List<ChangeImpl> addedChanges
+    ) throws EditValidationException {
+        int fromVersion = edits.get(0).getFromVersion();
+        if (fromVersion < snapshot.getBaseVersion()) {
+            throw new EditValidationException("Document version is no longer retained");
+        }
+        List<Change> newChanges = snapshot.getChanges(fromVersion);
+        ComposedTransform transform = null;
+        if (edits.size() == 1 && transformCacheMinChanges > 0 && newChanges.size() >= transformCacheMinChanges) {
+            transform = document.getTransformCache().get(snapshot, fromVersion);
+        }
+        if (transform != null) {
+            metrics.recordBacklog(newChanges.size() + addedChanges.size());
+            List<Edit> transformedEdits = transform(transform.transform(edits.get(0)), addedChanges);
+            if (edits.get(0).getOperation() == Operation.DELETE) {
+                metrics.recordDeleteSplits(transformedEdits.size());
+            }
+            for (ChangeImpl change : toChanges(transformedEdits, documentText, userId)) {
+                documentText = PlainTextDocument.apply(documentText, change);
+                addedChanges.add(change);
             }
-            return document.getChanges(edit.getFromVersion());
+            return documentText;
         }
+        if (!addedChanges.isEmpty()) {
+            newChanges = new ArrayList<>(newChanges);
+            newChanges.addAll(addedChanges);
+        }
+        for (int i = 0; i < edits.size(); i++) {
+            List<Change> nextChanges = i + 1 < edits.size() ? new ArrayList<>() : null;
+            metrics.recordBacklog(newChanges.size());
+            List<Edit> transformedEdits = transform(edits.get(i), newChanges, nextChanges);
+            if (edits.get(i).getOperation() == Operation.DELETE) {
+                metrics.recordDeleteSplits(transformedEdits.size());
+            }
+            for (ChangeImpl change : toChanges(transformedEdits, documentText, userId)) {
+                documentText = PlainTextDocument.apply(documentText, change);
+                addedChanges.add(change);
+            }
+            newChanges = nextChanges;
+        }
+        return documentText;
     }
 
     /*
      * Validation of the `edit` from the user local version of the document.
      * If the validation is passed, this `edit` will always be correct for this version.
      * All next changes increment the document version. Changing version history is not possible.
+     *
+     * The edits of a batch are validated against the local text length after the previous edits.
      */
-    private void validateEdit(PlainTextDocument document, Edit edit) throws EditValidationException {
-        int documentLength = document.getLength(edit.getFromVersion());
-        if (edit.getStartPosition() < 0 || edit.getStartPosition() > documentLength) {
-            throw new EditValidationException("Start position is incorrect");
+    private void validateEdits(PlainTextDocument document, List<? extends Edit> edits) throws EditValidationException {
+        if (edits.isEmpty()) {
+            throw new EditValidationException("No edits to process");
         }
-        if (edit.getFromVersion() < 0 || edit.getFromVersion() > document.getVersion()) {
+        DocumentSnapshot snapshot = document.getSnapshot();
+        int fromVersion = edits.get(0).getFromVersion();
+        if (fromVersion < 0 || fromVersion > snapshot.getVersion()) {
             throw new EditValidationException("Document version is unknown");
         }
+        if (fromVersion < snapshot.getBaseVersion()) {
+            throw new EditValidationException("Document version is no longer retained");
+        }
+        int documentLength = snapshot.getLength(fromVersion);
+        for (Edit edit : edits) {
+            if (edit.getFromVersion() != fromVersion) {
+                throw new EditValidationException("Edits of a batch must be made from the same document version");
+            }
+            validateEdit(edit, documentLength);
+            if (edit.getOperation() == Operation.INSERT) {
+                documentLength += edit.getSymbols().length();
+            } else {
+                documentLength -= edit.getSymbolsCount();
+            }
+        }
+    }
+
+    private void validateEdit(Edit edit, int documentLength) throws EditValidationException {
+        if (edit.getStartPosition() < 0 || edit.getStartPosition() > documentLength) {
+            throw new EditValidationException("Start position is incorrect");
+        }
         if (edit.getOperation() == Operation.DELETE &&
                 edit.getStartPosition() + edit.getSymbolsCount() > documentLength) {
             throw new EditValidationException("Delete interval is out of bounds");
@@ -52,7 +375,46 @@ public class Processor {
     }
 
     /*
-     * This method processes user insertion.
+     * Transforms the `edit` according to the list of new changes.
+     * Insertion stays a single edit, deletion can be splitted, decreased or disappeared.
+     *
+     * If `transformedChanges` is not null, the new changes are also transformed to the text after the `edit`
+     * and added to it. The result is the list of changes the user has to apply after the `edit` to get the server text.
+     */
+    private List<Edit> transform(Edit userEdit, List<Change> changes, List<Change> transformedChanges) {
+        List<Edit> edits = new ArrayList<>();
+        edits.add(userEdit);
+        for (Change change : changes) {
+            if (transformedChanges != null) {
+                transformedChanges.addAll(transformChange(change, edits));
+            }
+            if (userEdit.getOperation() == Operation.INSERT) {
+                transformInsert(userEdit, change);
+            } else {
+                transformDelete(edits, change);
+            }
+        }
+        return edits;
+    }
+
+    /*
+     * Transforms the result of a composed transform, which is one insertion or a list of deletions,
+     * according to the list of new changes.
+     */
+    private List<Edit> transform(List<Edit> edits, List<? extends Change> changes) {
+        List<Edit> transformedEdits = new ArrayList<>(edits);
+        for (Change change : changes) {
+            if (transformedEdits.size() == 1 && transformedEdits.get(0).getOperation() == Operation.INSERT) {
+                transformInsert(transformedEdits.get(0), change);
+            } else {
+                transformDelete(transformedEdits, change);
+            }
+        }
+        return transformedEdits;
+    }
+
+    /*
+     * This method transforms user insertion.
      *
      * The basic idea is to move the cursor position according to the new changes.
      *
@@ -66,21 +428,17 @@ public class Processor {
      * User change: Hello, universe! -> Hello, universe!?
      * Merge result: Hello, universe!!!?
      */
-    private void processInsert(PlainTextDocument document, Edit edit, long userId) {
-        for (Change change : document.getChanges(edit.getFromVersion())) {
-            if (change.getOperation() == Operation.INSERT && change.getStartPosition() <= edit.getStartPosition()) {
-                edit.shiftStartPosition(change.getText().length());
-            } else if (change.getOperation() == Operation.DELETE && change.getStartPosition() < edit.getStartPosition()) {
-                int shift = Math.min(edit.getStartPosition() - change.getStartPosition(), change.getText().length());
-                edit.shiftStartPosition(-shift);
-            }
+    private void transformInsert(Edit edit, Change change) {
+        if (change.getOperation() == Operation.INSERT && change.getStartPosition() <= edit.getStartPosition()) {
+            edit.shiftStartPosition(change.getSymbolsCount());
+        } else if (change.getOperation() == Operation.DELETE && change.getStartPosition() < edit.getStartPosition()) {
+            int shift = Math.min(edit.getStartPosition() - change.getStartPosition(), change.getSymbolsCount());
+            edit.shiftStartPosition(-shift);
         }
-        ChangeImpl addedChange = new ChangeImpl(edit.getStartPosition(), Operation.INSERT, edit.getSymbols(), userId);
-        document.addChange(addedChange);
     }
 
     /*
-     * This method processes user deletion.
+     * This method transforms user deletion.
      *
      * The logic is the same as for insertion, except the situation when user deletion conflicts with the list of new changes.
      *
@@ -88,40 +446,24 @@ public class Processor {
      * If new changes contain deletion from the same interval, this deletion removes collision part from the `edit`
      * in order not to delete the same characters twice. As a result `edit` can be splitted, decreased or disappeared.
      */
-    private void processDelete(PlainTextDocument document, Edit userEdit, long userId) {
-        List<Edit> edits = new ArrayList<>();
-        edits.add(userEdit);
-
-        for (Change change : document.getChanges(userEdit.getFromVersion())) {
-            ListIterator<Edit> it = edits.listIterator();
-            while (it.hasNext()) {
-                Edit edit = it.next();
-                if (change.getStartPosition() >= edit.getStartPosition() + edit.getSymbolsCount()) {
-                    continue;
-                }
-                if (change.getOperation() == Operation.INSERT &&
-                        change.getStartPosition() <= edit.getStartPosition()) {
-                    edit.shiftStartPosition(change.getText().length());
-                } else if (change.getOperation() == Operation.DELETE &&
-                        change.getStartPosition() + change.getSymbolsCount() <= edit.getStartPosition()) {
-                    edit.shiftStartPosition(change.getSymbolsCount());
-                } else {
-                    it.remove();
-                    transformDeleteOnConflict(edit, change).forEach(it::add);
-                }
+    private void transformDelete(List<Edit> edits, Change change) {
+        ListIterator<Edit> it = edits.listIterator();
+        while (it.hasNext()) {
+            Edit edit = it.next();
+            if (change.getStartPosition() >= edit.getStartPosition() + edit.getSymbolsCount()) {
+                continue;
+            }
+            if (change.getOperation() == Operation.INSERT &&
+                    change.getStartPosition() <= edit.getStartPosition()) {
+                edit.shiftStartPosition(change.getSymbolsCount());
+            } else if (change.getOperation() == Operation.DELETE &&
+                    change.getStartPosition() + change.getSymbolsCount() <= edit.getStartPosition()) {
+                edit.shiftStartPosition(-change.getSymbolsCount());
+            } else {
+                it.remove();
+                transformDeleteOnConflict(edit, change).forEach(it::add);
             }
         }
-
-        final String documentText = document.getText();
-        List<ChangeImpl> changes = edits.stream().map(currentEdit -> new ChangeImpl(
-                currentEdit.getStartPosition(),
-                Operation.DELETE,
-                documentText.substring(
-                        currentEdit.getStartPosition(),
-                        currentEdit.getStartPosition() + currentEdit.getSymbolsCount()),
-                userId
-        )).sorted((e1, e2) -> e2.getStartPosition() - e1.getStartPosition()).collect(Collectors.toList());
-        document.addChangesMany(changes);
     }
 
     private List<Edit> transformDeleteOnConflict(Edit edit, Change change) {
@@ -155,4 +497,94 @@ public class Processor {
         }
     }
 
-}
\ No newline at end of file
+    /*
+     * This method transforms a new change to the text after the user edit, which is a list of deletions or one insertion.
+     * It is the counterpart of `transformInsert` and `transformDelete`: the change goes first in the server history,
+     * so a change inserted at the position of the user insertion stays before it.
+     *
+     * If a change deletes an interval around the user insertion, the change divides in two.
+     * If a change deletes characters already deleted by the user, the change is decreased or disappeared.
+     */
+    private List<Change> transformChange(Change change, List<Edit> edits) {
+        List<Change> changes = Collections.singletonList(change);
+        for (Edit edit : edits) {
+            List<Change> transformedChanges = new ArrayList<>();
+            for (Change current : changes) {
+                transformedChanges.addAll(transformChange(current, edit));
+            }
+            changes = transformedChanges;
+        }
+        return changes;
+    }
+
+    private List<Change> transformChange(Change change, Edit edit) {
+        int start = change.getStartPosition();
+        int end = start + change.getSymbolsCount();
+        int editStart = edit.getStartPosition();
+        int editCount = edit.getSymbolsCount();
+        if (change.getOperation() == Operation.INSERT) {
+            if (edit.getOperation() == Operation.INSERT) {
+                return Collections.singletonList(editStart < start ? shiftChange(change, editCount) : change);
+            }
+            if (start <= editStart) {
+                return Collections.singletonList(change);
+            }
+            return Collections.singletonList(shiftChange(change, -Math.min(start - editStart, editCount)));
+        }
+        if (edit.getOperation() == Operation.INSERT) {
+            if (editStart <= start) {
+                return Collections.singletonList(shiftChange(change, editCount));
+            }
+            if (editStart >= end) {
+                return Collections.singletonList(change);
+            }
+            String text = change.getText();
+            return Arrays.asList(
+                    new ChangeImpl(editStart + editCount, Operation.DELETE,
+                            text.substring(editStart - start), change.getUserId()),
+                    new ChangeImpl(start, Operation.DELETE,
+                            text.substring(0, editStart - start), change.getUserId())
+            );
+        }
+        int overlapStart = Math.min(Math.max(editStart, start), end);
+        int overlapEnd = Math.max(Math.min(editStart + editCount, end), overlapStart);
+        if (overlapEnd - overlapStart == change.getSymbolsCount()) {
+            return Collections.emptyList();
+        }
+        String text = change.getText();
+        return Collections.singletonList(new ChangeImpl(
+                start < editStart ? start : Math.max(editStart, start - editCount),
+                Operation.DELETE,
+                text.substring(0, overlapStart - start) + text.substring(overlapEnd - start),
+                change.getUserId()
+        ));
+    }
+
+    private Change shiftChange(Change change, int shift) {
+        return new ChangeImpl(
+                change.getStartPosition() + shift, change.getOperation(), change.getText(), change.getUserId()
+        );
+    }
+
+    /*
+     * Deletions are sorted from right to left, so each of them is correct after the previous ones are applied.
+     */
+    private List<ChangeImpl> toChanges(List<Edit> edits, TextBuffer documentText, long userId) {
+        List<ChangeImpl> changes = new ArrayList<>();
+        for (Edit edit : edits) {
+            if (edit.getOperation() == Operation.INSERT) {
+                changes.add(new ChangeImpl(edit.getStartPosition(), Operation.INSERT, edit.getSymbols(), userId));
+            } else {
+                changes.add(new ChangeImpl(
+                        edit.getStartPosition(),
+                        Operation.DELETE,
+                        documentText.substring(edit.getStartPosition(), edit.getStartPosition() + edit.getSymbolsCount()),
+                        userId
+                ));
+            }
+        }
+        changes.sort((e1, e2) -> e2.getStartPosition() - e1.getStartPosition());
+        return changes;
+    }
+
+}
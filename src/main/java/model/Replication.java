@@ -0,0 +1,234 @@
+package model;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Leader/follower replication of the storage, `replication.role` is none, leader or follower.
+ *
+ * The leader owns the write path: every change of its storage is published as a ReplicationRecord
+ * after the write-ahead log, with the document version it follows. The changes are acknowledged
+ * to the clients without waiting for the followers.
+ *
+ * A follower applies the records to its documents in the published order. Its documents are read-only replicas
+ * with the ids and versions of the leader, they serve reads, the edits are rejected, see `isReadOnly`.
+ * A follower must have the same `storage.shards` as the leader and receive the records from the leader's
+ * first document on, records of unknown documents are dropped with a warning. A replica that misses versions
+ * can no longer follow the leader: it is removed from the follower, so it is not read stale, and the later records
+ * of the document are dropped. The follower has to be restored from the leader's storage to serve it again.
+ *
+ * `replication.follower.lag` is the time in milliseconds from the change on the leader to its application
+ * on the follower for the last applied record, `replication.follower.records` and `replication.follower.gaps`
+ * count the applied and dropped records, `replication.follower.diverged` counts the removed replicas.
+ */
+@Component
+public class Replication implements InitializingBean {
+
+    private static final Logger log = LoggerFactory.getLogger(Replication.class);
+
+    public enum Role {
+        NONE, LEADER, FOLLOWER
+    }
+
+    private final Role role;
+    private final Storage storage;
+    private final ReplicationTransport transport;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong lag = new AtomicLong();
+    private final Set<Long> divergedDocuments = ConcurrentHashMap.newKeySet();
+    private Counter records;
+    private Counter gaps;
+
+    public Replication(
+            Storage storage,
+            ReplicationTransport transport,
+            MeterRegistry meterRegistry,
+            @Value("${replication.role:none}") String role
+    ) {
+        try {
+            this.role = Role.valueOf(role.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Unknown replication.role: " + role + ", expected none, leader or follower"
+            );
+        }
+        this.storage = storage;
+        this.transport = transport;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /*
+     * The storage is connected before it is used by the other beans.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (role == Role.LEADER) {
+            storage.addStorageListener(new Publisher());
+        } else if (role == Role.FOLLOWER) {
+            Gauge.builder("replication.follower.lag", lag, AtomicLong::get)
+                    .description("Time from a change on the leader to its application on the follower")
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+            records = Counter.builder("replication.follower.records")
+                    .description("Replication records applied by the follower")
+                    .register(meterRegistry);
+            gaps = Counter.builder("replication.follower.gaps")
+                    .description("Replication records dropped by the follower")
+                    .register(meterRegistry);
+            Gauge.builder("replication.follower.diverged", divergedDocuments, Set::size)
+                    .description("Replicas removed from the follower after missing versions")
+                    .register(meterRegistry);
+            transport.subscribe(this::apply);
+        }
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public boolean isReadOnly() {
+        return role == Role.FOLLOWER;
+    }
+
+    long getLag() {
+        return lag.get();
+    }
+
+    /*
+     * The replica of the document missed versions and was removed, see the class comment.
+     */
+    boolean isDiverged(long id) {
+        return divergedDocuments.contains(id);
+    }
+
+    /*
+     * The lag and the applied records are updated only if the record changed the replica.
+     */
+    private void apply(ReplicationRecord record) {
+        Follower follower = new Follower();
+        record.replay(follower);
+        if (follower.applied) {
+            lag.set(Math.max(0, System.currentTimeMillis() - record.getTimestamp()));
+            records.increment();
+        }
+    }
+
+    private void drop(long id, String reason) {
+        log.warn("Dropped replication record of document {}: {}", id, reason);
+        gaps.increment();
+    }
+
+    private class Publisher implements StorageListener {
+
+        @Override
+        public CompletableFuture<Void> documentCreated(long id, String name) {
+            transport.publish(ReplicationRecord.created(id, name));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> documentRenamed(long id, String name) {
+            transport.publish(ReplicationRecord.renamed(id, name));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> documentRemoved(long id) {
+            transport.publish(ReplicationRecord.removed(id));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> changesAdded(long id, int fromVersion, List<? extends Change> changes) {
+            transport.publish(ReplicationRecord.changesAdded(id, fromVersion, changes));
+            return CompletableFuture.completedFuture(null);
+        }
+
+    }
+
+    /*
+     * Applies the records to the follower storage. Changes the replica already has are skipped.
+     */
+    private class Follower implements StorageListener {
+
+        private boolean applied = false;
+
+        @Override
+        public CompletableFuture<Void> documentCreated(long id, String name) {
+            if (storage.createDocument(id, name) == null) {
+                drop(id, "the document exists");
+            } else {
+                applied = true;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> documentRenamed(long id, String name) {
+            PlainTextDocument document = getReplica(id);
+            if (document != null) {
+                document.setName(name);
+                applied = true;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> documentRemoved(long id) {
+            applied = storage.removeDocument(id) != null;
+            divergedDocuments.remove(id);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public CompletableFuture<Void> changesAdded(long id, int fromVersion, List<? extends Change> changes) {
+            PlainTextDocument document = getReplica(id);
+            if (document == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            int skipped = document.getVersion() - fromVersion;
+            if (skipped < 0) {
+                diverge(id, "missing changes after version " + document.getVersion());
+            } else if (skipped < changes.size()) {
+                document.addChangesMany((List<ChangeImpl>) changes.subList(skipped, changes.size())).join();
+                applied = true;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        /*
+         * Returns null and drops the record if the document has no replica.
+         */
+        private PlainTextDocument getReplica(long id) {
+            PlainTextDocument document = storage.getDocument(id);
+            if (document == null) {
+                drop(id, isDiverged(id) ? "the replica diverged" : "unknown document");
+            }
+            return document;
+        }
+
+        private void diverge(long id, String reason) {
+            log.error("Removed the replica of document {}, it no longer follows the leader: {}", id, reason);
+            divergedDocuments.add(id);
+            storage.removeDocument(id);
+            gaps.increment();
+        }
+
+    }
+
+}
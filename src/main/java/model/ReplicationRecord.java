@@ -0,0 +1,112 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * A change of the leader storage sent to the followers: one call of StorageListener with the time it was made.
+ */
+public final class ReplicationRecord {
+
+    public enum Type {
+        CREATED, RENAMED, REMOVED, CHANGES_ADDED
+    }
+
+    private final Type type;
+    private final long documentId;
+    private final String name;
+    private final int fromVersion;
+    private final List<ChangeImpl> changes;
+    private final long timestamp;
+
+    private ReplicationRecord(
+            Type type, long documentId, String name, int fromVersion, List<ChangeImpl> changes, long timestamp
+    ) {
+        this.type = type;
+        this.documentId = documentId;
+        this.name = name;
+        this.fromVersion = fromVersion;
+        this.changes = changes;
+        this.timestamp = timestamp;
+    }
+
+    public static ReplicationRecord created(long documentId, String name) {
+        return new ReplicationRecord(
+                Type.CREATED, documentId, name, 0, Collections.emptyList(), System.currentTimeMillis()
+        );
+    }
+
+    public static ReplicationRecord renamed(long documentId, String name) {
+        return new ReplicationRecord(
+                Type.RENAMED, documentId, name, 0, Collections.emptyList(), System.currentTimeMillis()
+        );
+    }
+
+    public static ReplicationRecord removed(long documentId) {
+        return new ReplicationRecord(
+                Type.REMOVED, documentId, null, 0, Collections.emptyList(), System.currentTimeMillis()
+        );
+    }
+
+    /*
+     * The changes are copied, the list of the caller may be reused.
+     */
+    public static ReplicationRecord changesAdded(long documentId, int fromVersion, List<? extends Change> changes) {
+        List<ChangeImpl> copy = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            copy.add((ChangeImpl) change);
+        }
+        return new ReplicationRecord(
+                Type.CHANGES_ADDED, documentId, null, fromVersion, copy, System.currentTimeMillis()
+        );
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getDocumentId() {
+        return documentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFromVersion() {
+        return fromVersion;
+    }
+
+    public List<ChangeImpl> getChanges() {
+        return changes;
+    }
+
+    /*
+     * Milliseconds since the epoch on the leader, when the change was made.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /*
+     * Makes the same call of the `listener` as the leader storage made.
+     */
+    public void replay(StorageListener listener) {
+        switch (type) {
+            case CREATED:
+                listener.documentCreated(documentId, name);
+                break;
+            case RENAMED:
+                listener.documentRenamed(documentId, name);
+                break;
+            case REMOVED:
+                listener.documentRemoved(documentId);
+                break;
+            case CHANGES_ADDED:
+                listener.changesAdded(documentId, fromVersion, changes);
+                break;
+        }
+    }
+
+}
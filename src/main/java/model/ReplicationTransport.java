@@ -0,0 +1,20 @@
+package model;
+
+import java.util.function.Consumer;
+
+/*
+ * Carries the replication records from the leader to the followers, see Replication.
+ *
+ * The records must reach every follower in the order they were published. `publish` is called under the write lock
+ * of the document, so it should only queue the record.
+ */
+public interface ReplicationTransport {
+
+    void publish(ReplicationRecord record);
+
+    /*
+     * The follower receives the records published after the call.
+     */
+    void subscribe(Consumer<ReplicationRecord> follower);
+
+}
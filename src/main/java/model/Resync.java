@@ -0,0 +1,33 @@
+package model;
+
+import java.util.List;
+
+/*
+ * Resync is returned instead of the list of changes when the requested version is older than the retained change log.
+ * The client replaces its local text with the snapshot text and applies the changes after the snapshot version.
+ */
+public class Resync {
+
+    private final int version;
+    private final String text;
+    private final List<Change> changes;
+
+    Resync(int version, String text, List<Change> changes) {
+        this.version = version;
+        this.text = text;
+        this.changes = changes;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+}
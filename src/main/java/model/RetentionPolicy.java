@@ -0,0 +1,71 @@
+package model;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Retention policy of the document change log.
+ *
+ * The log keeps at least `maxVersions` latest changes and at least `maxBytes` of their text, zero means no limit.
+ * When the log grows past a limit by one eighth, the oldest changes are folded into the base snapshot of the document
+ * until the log fits the limit again. Compacting in portions keeps the cost of compaction constant per change.
+ *
+ * With `sessionTimeout` set, the documents track the latest version acknowledged by each client session and fold
+ * the changes up to the lowest version of the live sessions, so the log holds only what the clients still need.
+ * A session expires after `sessionTimeout` milliseconds without an acknowledgement. A document starts folding
+ * by the acknowledgements one session timeout after it is loaded, so the sessions of a restarted server
+ * acknowledge their versions first. The limits above still apply, a session behind them gets a resync.
+ */
+@Component
+public class RetentionPolicy {
+
+    public static final RetentionPolicy UNLIMITED = new RetentionPolicy(0, 0);
+
+    private final int maxVersions;
+    private final long maxBytes;
+    private final long sessionTimeoutNanos;
+
+    public RetentionPolicy(int maxVersions, long maxBytes) {
+        this(maxVersions, maxBytes, 0);
+    }
+
+    @Autowired
+    public RetentionPolicy(
+            @Value("${document.retention.max-versions:0}") int maxVersions,
+            @Value("${document.retention.max-bytes:0}") long maxBytes,
+            @Value("${document.retention.session-timeout:0}") long sessionTimeout
+    ) {
+        this.maxVersions = maxVersions;
+        this.maxBytes = maxBytes;
+        this.sessionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sessionTimeout);
+    }
+
+    public int getMaxVersions() {
+        return maxVersions;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean tracksSessions() {
+        return sessionTimeoutNanos > 0;
+    }
+
+    long getSessionTimeoutNanos() {
+        return sessionTimeoutNanos;
+    }
+
+    boolean needsCompaction(int versions, long bytes) {
+        return maxVersions > 0 && versions > maxVersions + Math.max(1, maxVersions / 8) ||
+                maxBytes > 0 && bytes > maxBytes + Math.max(1, maxBytes / 8);
+    }
+
+    boolean exceeds(int versions, long bytes) {
+        return maxVersions > 0 && versions > maxVersions || maxBytes > 0 && bytes > maxBytes;
+    }
+
+}
@@ -0,0 +1,243 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * Persistent rope, the default text buffer of a document.
+ *
+ * The text is kept in leaves of at most MAX_LEAF_LENGTH characters, concatenation nodes are kept AVL-balanced.
+ * Insert and delete split the tree at the edit position and join the parts again, so they take O(log n)
+ * and copy only the leaves on the split path. Untouched subtrees are shared with the previous version.
+ */
+public final class Rope implements TextBuffer {
+
+    static final int MAX_LEAF_LENGTH = 512;
+
+    public static final Rope EMPTY = new Rope(Leaf.EMPTY);
+
+    private final Node root;
+
+    private String text;
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    public static Rope of(String text) {
+        return text.isEmpty() ? EMPTY : new Rope(build(text, 0, text.length()));
+    }
+
+    public int length() {
+        return root.length;
+    }
+
+    public Rope insert(int position, String text) {
+        checkRange(position, position);
+        if (text.isEmpty()) {
+            return this;
+        }
+        Node[] parts = split(root, position);
+        return new Rope(join(join(parts[0], build(text, 0, text.length())), parts[1]));
+    }
+
+    public Rope delete(int position, int count) {
+        checkRange(position, position + count);
+        if (count == 0) {
+            return this;
+        }
+        Node[] left = split(root, position);
+        Node[] right = split(left[1], count);
+        return new Rope(join(left[0], right[1]));
+    }
+
+    public String substring(int from, int to) {
+        checkRange(from, to);
+        StringBuilder builder = new StringBuilder(to - from);
+        append(root, from, to, builder);
+        return builder.toString();
+    }
+
+    public void writeTo(Writer out, int from, int to) throws IOException {
+        checkRange(from, to);
+        write(root, from, to, out);
+    }
+
+    /*
+     * The whole text is built once per rope and cached, a rope never changes.
+     */
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            result = substring(0, length());
+            text = result;
+        }
+        return result;
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || from > to || to > length()) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") is out of bounds " + length());
+        }
+    }
+
+    private static Node build(String text, int from, int to) {
+        if (to - from <= MAX_LEAF_LENGTH) {
+            return new Leaf(text.substring(from, to));
+        }
+        int leaves = (to - from + MAX_LEAF_LENGTH - 1) / MAX_LEAF_LENGTH;
+        int middle = from + leaves / 2 * MAX_LEAF_LENGTH;
+        return new Concat(build(text, from, middle), build(text, middle, to));
+    }
+
+    private static void append(Node node, int from, int to, StringBuilder builder) {
+        if (from >= to) {
+            return;
+        }
+        if (node instanceof Leaf) {
+            builder.append(((Leaf) node).text, from, to);
+            return;
+        }
+        Concat concat = (Concat) node;
+        int leftLength = concat.left.length;
+        if (from < leftLength) {
+            append(concat.left, from, Math.min(to, leftLength), builder);
+        }
+        if (to > leftLength) {
+            append(concat.right, Math.max(from - leftLength, 0), to - leftLength, builder);
+        }
+    }
+
+    private static void write(Node node, int from, int to, Writer out) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        if (node instanceof Leaf) {
+            out.write(((Leaf) node).text, from, to - from);
+            return;
+        }
+        Concat concat = (Concat) node;
+        int leftLength = concat.left.length;
+        if (from < leftLength) {
+            write(concat.left, from, Math.min(to, leftLength), out);
+        }
+        if (to > leftLength) {
+            write(concat.right, Math.max(from - leftLength, 0), to - leftLength, out);
+        }
+    }
+
+    private static Node[] split(Node node, int position) {
+        if (position == 0) {
+            return new Node[]{Leaf.EMPTY, node};
+        }
+        if (position == node.length) {
+            return new Node[]{node, Leaf.EMPTY};
+        }
+        if (node instanceof Leaf) {
+            String text = ((Leaf) node).text;
+            return new Node[]{new Leaf(text.substring(0, position)), new Leaf(text.substring(position))};
+        }
+        Concat concat = (Concat) node;
+        int leftLength = concat.left.length;
+        if (position < leftLength) {
+            Node[] parts = split(concat.left, position);
+            return new Node[]{parts[0], join(parts[1], concat.right)};
+        }
+        if (position > leftLength) {
+            Node[] parts = split(concat.right, position - leftLength);
+            return new Node[]{join(concat.left, parts[0]), parts[1]};
+        }
+        return new Node[]{concat.left, concat.right};
+    }
+
+    /*
+     * Joins two balanced trees into one balanced tree.
+     *
+     * The shorter tree is joined to the inner edge of the taller one and the path is rebalanced on the way back.
+     * A leaf is always pushed down to its neighbour leaf, so small edits are merged into existing leaves
+     * instead of producing a new leaf per keystroke.
+     */
+    private static Node join(Node left, Node right) {
+        if (left.length == 0) {
+            return right;
+        }
+        if (right.length == 0) {
+            return left;
+        }
+        if (left instanceof Leaf && right instanceof Leaf && left.length + right.length <= MAX_LEAF_LENGTH) {
+            return new Leaf(((Leaf) left).text + ((Leaf) right).text);
+        }
+        if (left.height > right.height + 1 || left instanceof Concat && right instanceof Leaf) {
+            Concat concat = (Concat) left;
+            return balance(concat.left, join(concat.right, right));
+        }
+        if (right.height > left.height + 1 || right instanceof Concat && left instanceof Leaf) {
+            Concat concat = (Concat) right;
+            return balance(join(left, concat.left), concat.right);
+        }
+        return new Concat(left, right);
+    }
+
+    /*
+     * Heights of the arguments differ at most by two, one single or double rotation restores the balance.
+     */
+    private static Node balance(Node left, Node right) {
+        if (left.height > right.height + 1) {
+            Concat concat = (Concat) left;
+            if (concat.left.height >= concat.right.height) {
+                return new Concat(concat.left, new Concat(concat.right, right));
+            }
+            Concat inner = (Concat) concat.right;
+            return new Concat(new Concat(concat.left, inner.left), new Concat(inner.right, right));
+        }
+        if (right.height > left.height + 1) {
+            Concat concat = (Concat) right;
+            if (concat.right.height >= concat.left.height) {
+                return new Concat(new Concat(left, concat.left), concat.right);
+            }
+            Concat inner = (Concat) concat.left;
+            return new Concat(new Concat(left, inner.left), new Concat(inner.right, concat.right));
+        }
+        return new Concat(left, right);
+    }
+
+    private static abstract class Node {
+
+        final int length;
+        final int height;
+
+        Node(int length, int height) {
+            this.length = length;
+            this.height = height;
+        }
+
+    }
+
+    private static final class Leaf extends Node {
+
+        static final Leaf EMPTY = new Leaf("");
+
+        final String text;
+
+        Leaf(String text) {
+            super(text.length(), 0);
+            this.text = text;
+        }
+
+    }
+
+    private static final class Concat extends Node {
+
+        final Node left;
+        final Node right;
+
+        Concat(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+
+    }
+
+}
@@ -0,0 +1,381 @@
+package model;
+
+/*
+ * Monotone mapping of positions of an old text to positions of a newer text, stored as a tree of segments.
+ *
+ * A segment starts at a position of the old text and lasts to the start of the next segment.
+ * In a SHIFT segment each position is moved by the same offset, in a CONST segment all positions are mapped
+ * to one position and the positions of a DEAD segment are not mapped at all.
+ * The mapped positions never decrease from one segment to the next, DEAD segments aside.
+ *
+ * Each change of the newer text splits at most two segments, so the number of segments grows with the changes.
+ * The segments are kept in a treap ordered by their starts. Moving the values of all the segments after a position
+ * is a lazy offset of the subtrees, and every subtree knows the greatest value it maps to, so both the position
+ * of a value and the segment of a position are found in O(log n). A change is applied in O(log n) as well.
+ */
+final class SegmentMap {
+
+    private static final byte SHIFT = 0;
+    private static final byte CONST = 1;
+    private static final byte DEAD = 2;
+
+    /*
+     * Greatest mapped value of a subtree without mapped positions.
+     */
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final int end;
+    private Node root;
+    private int seed = 0x9E3779B9;
+
+    /*
+     * Positions from 0 to `end` exclusive, all mapped to themselves.
+     */
+    SegmentMap(int end) {
+        this.end = end;
+        if (end > 0) {
+            root = new Node(0, end, SHIFT, 0, nextPriority());
+        }
+    }
+
+    /*
+     * Mapped values at or after `position` are moved by `count`, it is an insertion in the newer text.
+     */
+    void shift(int position, int count) {
+        int from = splitAt(position);
+        Node[] parts = split(root, from);
+        add(parts[1], count);
+        root = merge(parts[0], parts[1]);
+    }
+
+    /*
+     * Mapped values in the interval (`position`, `position + count`) collapse to `position`
+     * and the next values are moved back, it is a deletion in the newer text for cursor positions.
+     */
+    void collapse(int position, int count) {
+        int from = splitAt(position + 1);
+        int to = splitAt(position + count);
+        replace(from, to, CONST, position, -count);
+    }
+
+    /*
+     * Mapped values in the interval [`position`, `position + count`) are no longer mapped
+     * and the next values are moved back, it is a deletion in the newer text for symbols.
+     */
+    void remove(int position, int count) {
+        int from = splitAt(position);
+        int to = splitAt(position + count);
+        replace(from, to, DEAD, 0, -count);
+    }
+
+    /*
+     * The position must be inside the map and must not be in a DEAD segment.
+     */
+    int map(int position) {
+        Node node = root;
+        while (true) {
+            push(node);
+            if (position < node.start) {
+                node = node.left;
+            } else if (position >= node.start + node.length) {
+                node = node.right;
+            } else {
+                return node.kind == SHIFT ? position + node.value : node.value;
+            }
+        }
+    }
+
+    /*
+     * Calls the consumer for each run of positions in [`from`, `to`), that are mapped to consecutive positions.
+     * The consumer gets the mapped start and the length of the run, runs are ordered by the position.
+     */
+    void forEachRun(int from, int to, RunConsumer consumer) {
+        if (from >= to) {
+            return;
+        }
+        Runs runs = new Runs(from, to, consumer);
+        runs.visit(root);
+        runs.flush();
+    }
+
+    interface RunConsumer {
+        void accept(int start, int length);
+    }
+
+    /*
+     * Splits the segments, so that all values of the segment at the returned position and the next ones
+     * are not less than `value` and all values of the previous ones are less. Returns `end` if all values are less.
+     */
+    private int splitAt(int value) {
+        Node node = root;
+        while (node != null) {
+            push(node);
+            if (node.left != null && node.left.maxValue >= value) {
+                node = node.left;
+            } else if (node.lastValue() >= value) {
+                break;
+            } else {
+                node = node.right;
+            }
+        }
+        if (node == null) {
+            return end;
+        }
+        if (node.kind != SHIFT || node.start + node.value >= value) {
+            return node.start;
+        }
+        int position = value - node.value;
+        Node[] left = split(root, node.start);
+        Node[] right = split(left[1], node.start + 1);
+        Node tail = new Node(position, node.start + node.length - position, SHIFT, node.value, nextPriority());
+        node.length = position - node.start;
+        node.update();
+        root = merge(merge(left[0], node), merge(tail, right[1]));
+        return position;
+    }
+
+    /*
+     * Replaces the segments in [`from`, `to`) with one segment and moves the values of the next segments by `shift`.
+     * The new segment is merged with its neighbours, if they continue it.
+     */
+    private void replace(int from, int to, byte kind, int value, int shift) {
+        Node[] left = split(root, from);
+        Node[] right = split(left[1], to);
+        Node previous = left[0];
+        Node next = right[1];
+        add(next, shift);
+        if (from == to) {
+            root = merge(previous, next);
+            return;
+        }
+        Node segment = new Node(from, to - from, kind, value, nextPriority());
+        Node first = first(next);
+        if (first != null && segment.continuedBy(first)) {
+            segment.length += first.length;
+            segment.update();
+            next = split(next, first.start + 1)[1];
+        }
+        Node last = last(previous);
+        if (last != null && last.continuedBy(segment)) {
+            Node[] parts = split(previous, last.start);
+            last.length += segment.length;
+            last.update();
+            previous = merge(parts[0], last);
+            segment = null;
+        }
+        root = merge(merge(previous, segment), next);
+    }
+
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    /*
+     * Splits the tree into the segments that start before `position` and the rest.
+     */
+    private static Node[] split(Node node, int position) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        push(node);
+        if (node.start < position) {
+            Node[] parts = split(node.right, position);
+            node.right = parts[0];
+            node.update();
+            return new Node[]{node, parts[1]};
+        }
+        Node[] parts = split(node.left, position);
+        node.left = parts[1];
+        node.update();
+        return new Node[]{parts[0], node};
+    }
+
+    /*
+     * All segments of `left` must start before the segments of `right`.
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            push(left);
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        push(right);
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static Node first(Node node) {
+        while (node != null) {
+            push(node);
+            if (node.left == null) {
+                return node;
+            }
+            node = node.left;
+        }
+        return null;
+    }
+
+    private static Node last(Node node) {
+        while (node != null) {
+            push(node);
+            if (node.right == null) {
+                return node;
+            }
+            node = node.right;
+        }
+        return null;
+    }
+
+    /*
+     * Moves the values of the subtree by `offset`, the children get it when they are visited.
+     */
+    private static void add(Node node, int offset) {
+        if (node == null || offset == 0) {
+            return;
+        }
+        node.value += offset;
+        node.offset += offset;
+        if (node.maxValue != NONE) {
+            node.maxValue += offset;
+        }
+    }
+
+    private static void push(Node node) {
+        if (node.offset != 0) {
+            add(node.left, node.offset);
+            add(node.right, node.offset);
+            node.offset = 0;
+        }
+    }
+
+    private static final class Node {
+
+        private final int start;
+        private final byte kind;
+        private final int priority;
+        private int length;
+        private int value;
+
+        /*
+         * Offset of the values of the children, that is not applied to them yet.
+         */
+        private int offset;
+
+        /*
+         * The greatest value the segments of the subtree map to, NONE if all of them are DEAD.
+         */
+        private int maxValue;
+
+        private Node left;
+        private Node right;
+
+        private Node(int start, int length, byte kind, int value, int priority) {
+            this.start = start;
+            this.length = length;
+            this.kind = kind;
+            this.value = value;
+            this.priority = priority;
+            this.maxValue = lastValue();
+        }
+
+        private int lastValue() {
+            switch (kind) {
+                case SHIFT:
+                    return start + length - 1 + value;
+                case CONST:
+                    return value;
+                default:
+                    return NONE;
+            }
+        }
+
+        private boolean continuedBy(Node next) {
+            return kind == next.kind && (kind == DEAD || value == next.value);
+        }
+
+        /*
+         * The children must have no pending offset relative to this node, see `push`.
+         */
+        private void update() {
+            int max = lastValue();
+            if (left != null) {
+                max = Math.max(max, left.maxValue);
+            }
+            if (right != null) {
+                max = Math.max(max, right.maxValue);
+            }
+            maxValue = max;
+        }
+
+    }
+
+    /*
+     * Joins the segments visited in order into runs of consecutive mapped positions.
+     */
+    private static final class Runs {
+
+        private final int from;
+        private final int to;
+        private final RunConsumer consumer;
+        private int runStart = -1;
+        private int runLength = 0;
+
+        private Runs(int from, int to, RunConsumer consumer) {
+            this.from = from;
+            this.to = to;
+            this.consumer = consumer;
+        }
+
+        private void visit(Node node) {
+            if (node == null) {
+                return;
+            }
+            push(node);
+            if (from < node.start) {
+                visit(node.left);
+            }
+            if (node.start < to && node.start + node.length > from) {
+                add(node);
+            }
+            if (node.start + node.length < to) {
+                visit(node.right);
+            }
+        }
+
+        private void add(Node node) {
+            if (node.kind == DEAD) {
+                return;
+            }
+            int start = Math.max(node.start, from);
+            int segmentEnd = Math.min(node.start + node.length, to);
+            int mappedStart = node.kind == SHIFT ? start + node.value : node.value;
+            int length = node.kind == SHIFT ? segmentEnd - start : 0;
+            if (runLength > 0 && runStart + runLength == mappedStart) {
+                runLength += length;
+            } else {
+                flush();
+                runStart = mappedStart;
+                runLength = length;
+            }
+        }
+
+        private void flush() {
+            if (runLength > 0) {
+                consumer.accept(runStart, runLength);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Latest versions of a document acknowledged by its client sessions, see RetentionPolicy.
+ * A session is live while it acknowledges a version at least once per session timeout, expired sessions are dropped.
+ */
+final class SessionVersions {
+
+    private final Map<String, Acknowledgement> sessions = new ConcurrentHashMap<>();
+
+    void acknowledge(String sessionId, int version, long time) {
+        sessions.put(sessionId, new Acknowledgement(version, time));
+    }
+
+    void remove(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    /*
+     * Lowest version acknowledged by the live sessions, `version` if there are none.
+     */
+    int getLowWaterMark(int version, long now, long timeoutNanos) {
+        int lowWaterMark = version;
+        for (Map.Entry<String, Acknowledgement> entry : sessions.entrySet()) {
+            Acknowledgement acknowledgement = entry.getValue();
+            if (now - acknowledgement.time > timeoutNanos) {
+                sessions.remove(entry.getKey(), acknowledgement);
+            } else {
+                lowWaterMark = Math.min(lowWaterMark, acknowledgement.version);
+            }
+        }
+        return lowWaterMark;
+    }
+
+    private static final class Acknowledgement {
+
+        private final int version;
+        private final long time;
+
+        private Acknowledgement(int version, long time) {
+            this.version = version;
+            this.time = time;
+        }
+
+    }
+
+}
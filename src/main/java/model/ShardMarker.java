@@ -0,0 +1,69 @@
+package model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Number of shards a storage directory is written with, kept in the `shards` file of the directory,
+ * see ShardedStorage. Documents are found by the shard of their id, so a directory must not be opened
+ * with another number of shards.
+ *
+ * A directory without the file is checked by its contents: the files of an unsharded storage are directly
+ * in it and the files of the shards are in `shard-<n>` subdirectories.
+ */
+final class ShardMarker {
+
+    private static final String FILE_NAME = "shards";
+    private static final String SHARD_PREFIX = "shard-";
+
+    private ShardMarker() {
+    }
+
+    static String shardDirectory(int shard) {
+        return SHARD_PREFIX + shard;
+    }
+
+    /*
+     * Throws IllegalStateException if the `directory` is written with another number of shards,
+     * otherwise records `shardCount` in it. Files of the storage end with `suffix`.
+     */
+    static void check(Path directory, int shardCount, String suffix) throws IOException {
+        Files.createDirectories(directory);
+        Path marker = directory.resolve(FILE_NAME);
+        if (Files.exists(marker)) {
+            int markedCount = Integer.parseInt(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim());
+            if (markedCount != shardCount) {
+                throw new IllegalStateException(
+                        directory + " is written with " + markedCount + " shards, storage.shards is " + shardCount
+                );
+            }
+            return;
+        }
+        List<String> fileNames;
+        try (Stream<Path> files = Files.list(directory)) {
+            fileNames = files.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+        }
+        long shardDirectories = fileNames.stream().filter(fileName -> fileName.startsWith(SHARD_PREFIX)).count();
+        boolean unshardedFiles = fileNames.stream().anyMatch(fileName -> fileName.endsWith(suffix));
+        if (shardCount > 1 && unshardedFiles) {
+            throw new IllegalStateException(
+                    directory + " holds the files of an unsharded storage, storage.shards is " + shardCount
+            );
+        }
+        if (shardDirectories > 0 && shardDirectories != (shardCount > 1 ? shardCount : 0)) {
+            throw new IllegalStateException(
+                    directory + " holds " + shardDirectories + " shards, storage.shards is " + shardCount
+            );
+        }
+        Path temporary = directory.resolve(FILE_NAME + ".tmp");
+        Files.write(temporary, Integer.toString(shardCount).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, marker, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
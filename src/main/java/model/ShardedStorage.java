@@ -0,0 +1,213 @@
+package model;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+ * Documents split into `storage.shards` shards, each one a HashMapStorage. It is enabled with more than one shard.
+ *
+ * A document id is the sequence number of the document in its shard times the number of shards plus the shard,
+ * so the shard of an id is the id modulo the number of shards and the shards allocate ids independently.
+ * Every shard has its own write-ahead log and checkpoints in the `shard-<n>` subdirectories, its own maintenance
+ * thread, an equal part of `storage.tiering.max-bytes` and gauges tagged by `shard`.
+ * New documents are placed in the shards in turn. The number of shards is recorded in the directories,
+ * the storage refuses to start with another one, see ShardMarker.
+ *
+ * Each shard has a worker thread. Recovery and the bulk operations, listing, export and checkpoints,
+ * run on all shards in parallel.
+ */
+@Repository
+@ConditionalOnExpression("${storage.shards:1} > 1")
+public class ShardedStorage implements Storage, DisposableBean {
+
+    private final HashMapStorage[] shards;
+    private final WriteAheadLog[] writeAheadLogs;
+    private final ExecutorService[] workers;
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    public ShardedStorage(int shardCount) throws IOException {
+        this(
+                RetentionPolicy.UNLIMITED, CoalescingPolicy.DISABLED, new WriteAheadLog("", "durable", 0),
+                CheckpointStore.DISABLED, 0, new CompositeMeterRegistry(), shardCount
+        );
+    }
+
+    @Autowired
+    public ShardedStorage(
+            RetentionPolicy retentionPolicy,
+            CoalescingPolicy coalescingPolicy,
+            WriteAheadLog writeAheadLog,
+            CheckpointStore checkpointStore,
+            @Value("${storage.tiering.max-bytes:0}") long maxResidentBytes,
+            MeterRegistry meterRegistry,
+            @Value("${storage.shards:1}") int shardCount
+    ) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("storage.shards must be positive: " + shardCount);
+        }
+        if (writeAheadLog.isEnabled()) {
+            writeAheadLog.checkShardCount(shardCount);
+            checkpointStore.checkShardCount(shardCount);
+        }
+        shards = new HashMapStorage[shardCount];
+        writeAheadLogs = new WriteAheadLog[shardCount];
+        workers = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = "storage-shard-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            writeAheadLogs[i] = writeAheadLog.forShard(i);
+        }
+        try {
+            invokeAll(shard -> {
+                shards[shard] = new HashMapStorage(
+                        retentionPolicy, coalescingPolicy, writeAheadLogs[shard], checkpointStore.forShard(shard),
+                        maxResidentBytes / shardCount, meterRegistry, shard, shardCount
+                );
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            try {
+                destroy();
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            throw e;
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getShard(long id) {
+        return (int) Math.floorMod(id, (long) shards.length);
+    }
+
+    public PlainTextDocument createDocument(String name) {
+        return shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)].createDocument(name);
+    }
+
+    public PlainTextDocument createDocument(long id, String name) {
+        return shards[getShard(id)].createDocument(id, name);
+    }
+
+    public PlainTextDocument getDocument(long id) {
+        return shards[getShard(id)].getDocument(id);
+    }
+
+    public PlainTextDocument removeDocument(long id) {
+        return shards[getShard(id)].removeDocument(id);
+    }
+
+    public List<Long> getDocumentIds() {
+        List<List<Long>> shardIds;
+        try {
+            shardIds = invokeAll(shard -> shards[shard].getDocumentIds());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<Long> ids = new ArrayList<>();
+        shardIds.forEach(ids::addAll);
+        ids.sort(null);
+        return ids;
+    }
+
+    public void exportDocuments(Consumer<DocumentSnapshot> consumer) throws IOException {
+        invokeAll(shard -> {
+            shards[shard].exportDocuments(consumer);
+            return null;
+        });
+    }
+
+    public void checkpoint() throws IOException {
+        invokeAll(shard -> {
+            shards[shard].checkpoint();
+            return null;
+        });
+    }
+
+    public void addStorageListener(StorageListener listener) {
+        for (HashMapStorage shard : shards) {
+            shard.addStorageListener(listener);
+        }
+    }
+
+    HashMapStorage getShardStorage(int shard) {
+        return shards[shard];
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] != null) {
+                shards[i].destroy();
+            }
+            try {
+                writeAheadLogs[i].destroy();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            workers[i].shutdown();
+        }
+        for (ExecutorService worker : workers) {
+            worker.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /*
+     * Runs the task for every shard on its worker and waits for all of them, the first failure is rethrown.
+     */
+    private <T> List<T> invokeAll(ShardTask<T> task) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int shard = i;
+            futures.add(workers[i].submit(() -> task.run(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the shards");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Shard task failed", cause);
+        }
+        return results;
+    }
+
+    private interface ShardTask<T> {
+        T run(int shard) throws IOException;
+    }
+
+}
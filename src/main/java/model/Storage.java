@@ -1,11 +1,41 @@
 package model;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
 public interface Storage {
 
-    Document createDocument(String name);
+    PlainTextDocument createDocument(String name);
+
+    /*
+     * Document with the given id, for example a replica of a leader document. Returns null if the id is taken.
+     */
+    PlainTextDocument createDocument(long id, String name);
+
+    PlainTextDocument getDocument(long id);
+
+    PlainTextDocument removeDocument(long id);
+
+    /*
+     * Ids of all documents in ascending order.
+     */
+    List<Long> getDocumentIds();
+
+    /*
+     * Passes the latest snapshot of every document to the `consumer`, it may be called concurrently.
+     */
+    void exportDocuments(Consumer<DocumentSnapshot> consumer) throws IOException;
 
-    Document getDocument(long id);
+    /*
+     * Writes checkpoints of the changed documents, if checkpoints are enabled.
+     */
+    void checkpoint() throws IOException;
 
-    Document removeDocument(long id);
+    /*
+     * Passes the changes of the storage to the `listener` too, see StorageListener.
+     * It is called before the storage is used.
+     */
+    void addStorageListener(StorageListener listener);
 
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package model;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Receives every change of the storage in the order it is applied, for example to persist it, see WriteAheadLog.
+ *
+ * The changes of a document are passed under the write lock of the document, so they come in the version order.
+ * Each method returns a future that completes when the caller may acknowledge the change.
+ */
+public interface StorageListener {
+
+    StorageListener NONE = new StorageListener() {
+    };
+
+    default CompletableFuture<Void> documentCreated(long id, String name) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    default CompletableFuture<Void> documentRenamed(long id, String name) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    default CompletableFuture<Void> documentRemoved(long id) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /*
+     * `fromVersion` is the document version before the changes.
+     */
+    default CompletableFuture<Void> changesAdded(long id, int fromVersion, List<? extends Change> changes) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /*
+     * False once the changes can no longer be stored, the documents reject them before they are applied.
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
+    /*
+     * Passes every call to this listener and then to the `next` one, the future completes when both complete.
+     */
+    default StorageListener andThen(StorageListener next) {
+        StorageListener first = this;
+        return new StorageListener() {
+
+            @Override
+            public boolean isAvailable() {
+                return first.isAvailable() && next.isAvailable();
+            }
+
+            @Override
+            public CompletableFuture<Void> documentCreated(long id, String name) {
+                return CompletableFuture.allOf(first.documentCreated(id, name), next.documentCreated(id, name));
+            }
+
+            @Override
+            public CompletableFuture<Void> documentRenamed(long id, String name) {
+                return CompletableFuture.allOf(first.documentRenamed(id, name), next.documentRenamed(id, name));
+            }
+
+            @Override
+            public CompletableFuture<Void> documentRemoved(long id) {
+                return CompletableFuture.allOf(first.documentRemoved(id), next.documentRemoved(id));
+            }
+
+            @Override
+            public CompletableFuture<Void> changesAdded(long id, int fromVersion, List<? extends Change> changes) {
+                return CompletableFuture.allOf(
+                        first.changesAdded(id, fromVersion, changes), next.changesAdded(id, fromVersion, changes)
+                );
+            }
+
+        };
+    }
+
+}
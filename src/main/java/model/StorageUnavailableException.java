@@ -0,0 +1,12 @@
+package model;
+
+/*
+ * The storage can no longer persist changes, for example the write-ahead log failed. The document is not changed.
+ */
+public class StorageUnavailableException extends RuntimeException {
+
+    StorageUnavailableException(long documentId) {
+        super("Storage is unavailable, document " + documentId + " is not changed");
+    }
+
+}
@@ -0,0 +1,26 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * Text storage of a document.
+ * Buffers are immutable: insert and delete return a new buffer, the old one stays valid and unchanged.
+ * This way implementations can share structure between versions instead of copying the whole text.
+ */
+public interface TextBuffer {
+
+    int length();
+
+    TextBuffer insert(int position, String text);
+
+    TextBuffer delete(int position, int count);
+
+    String substring(int from, int to);
+
+    /*
+     * Writes the range piece by piece as it is stored, without building a string of the range.
+     */
+    void writeTo(Writer out, int from, int to) throws IOException;
+
+}
@@ -0,0 +1,93 @@
+package model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Range of the text of a document at one version, see DocumentSnapshot.getTextRange.
+ *
+ * The range keeps the text buffer of the snapshot, so it stays consistent while the document changes.
+ * The text is never built as a whole: it is written to the response leaf by leaf, see TextBuffer.writeTo,
+ * or read in parts of a bounded length as the consumer requests them.
+ */
+public final class TextRange {
+
+    private final TextBuffer text;
+    private final int version;
+    private final int from;
+    private final int to;
+
+    TextRange(TextBuffer text, int version, int from, int to) {
+        this.text = text;
+        this.version = version;
+        this.from = from;
+        this.to = to;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    /*
+     * Length of the whole text at the version.
+     */
+    public int getTextLength() {
+        return text.length();
+    }
+
+    /*
+     * Writes the range in UTF-8.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        text.writeTo(writer, from, to);
+        writer.flush();
+    }
+
+    /*
+     * The range in parts of at most `length` symbols, a part is read from the text buffer when it is iterated.
+     * A surrogate pair is never split between parts, so every part can be encoded on its own.
+     */
+    public Iterable<String> split(int length) {
+        if (length < 2) {
+            throw new IllegalArgumentException("Part length " + length + " is less than 2");
+        }
+        return () -> new Iterator<String>() {
+
+            private int position = from;
+
+            @Override
+            public boolean hasNext() {
+                return position < to;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String part = text.substring(position, Math.min(position + length, to));
+                if (position + part.length() < to && Character.isHighSurrogate(part.charAt(part.length() - 1))) {
+                    part = part.substring(0, part.length() - 1);
+                }
+                position += part.length();
+                return part;
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,64 @@
+package model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Composed transforms of one document by the version they start from, see ComposedTransform.
+ * Clients editing from the same stale version share one transform. The least recently used transform is dropped.
+ *
+ * Extending a transform by a change takes O(log n), but building one still costs more than transforming
+ * a single edit against the changes in turn. So a version is admitted when it is requested the second time,
+ * a client that keeps editing from its own new versions never gets a transform.
+ *
+ * The cache is used only by the writer of the document, see Processor.
+ */
+final class TransformCache {
+
+    private static final int CAPACITY = 8;
+    private static final int REQUESTED_CAPACITY = 64;
+
+    private final Map<Integer, ComposedTransform> transforms = new LinkedHashMap<Integer, ComposedTransform>(
+            16, 0.75f, true
+    ) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ComposedTransform> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    /*
+     * Versions requested once, the least recently requested version is dropped.
+     */
+    private final Map<Integer, Boolean> requestedVersions = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+            return size() > REQUESTED_CAPACITY;
+        }
+    };
+
+    /*
+     * Returns the transform from `fromVersion` to the snapshot version, or null if the version is not admitted yet.
+     * The version must be retained by the snapshot.
+     */
+    ComposedTransform get(DocumentSnapshot snapshot, int fromVersion) {
+        ComposedTransform transform = transforms.get(fromVersion);
+        if (transform == null && !admit(fromVersion)) {
+            return null;
+        }
+        if (transform == null || transform.getVersion() > snapshot.getVersion()) {
+            transform = new ComposedTransform(fromVersion, snapshot.getLength(fromVersion));
+            transforms.put(fromVersion, transform);
+        }
+        transform.extend(snapshot.getChanges(transform.getVersion()));
+        return transform;
+    }
+
+    /*
+     * Returns true if the version was requested before, otherwise remembers the request.
+     */
+    boolean admit(int fromVersion) {
+        return requestedVersions.put(fromVersion, Boolean.TRUE) != null;
+    }
+
+}
@@ -0,0 +1,9 @@
+package model;
+
+public class VersionNotRetainedException extends RuntimeException {
+
+    VersionNotRetainedException(int version, int baseVersion) {
+        super("Version " + version + " is older than the retained change log, which starts at " + baseVersion);
+    }
+
+}
@@ -0,0 +1,445 @@
+package model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+ * Segmented write-ahead log of the storage. It is enabled when `storage.wal.directory` is set.
+ *
+ * Writers append records to an in-memory batch under the write lock of the document, so the records of a document
+ * are in the version order. One flusher thread writes the batch to the current segment through its FileChannel
+ * and forces it to disk. The records appended while a batch is being forced go to the next batch,
+ * so many concurrent edits share one force (group commit).
+ *
+ * With `storage.wal.ack=durable` the returned futures complete after the force, with `applied` they complete at once
+ * and the records are forced in the background.
+ *
+ * A record is the length of the body, CRC32 of the body and the body: the type and the payload.
+ * A segment is named by the sequence number of its first record. A torn record at the end of the last segment
+ * is cut off on recovery, see `recover`. Segments covered by checkpoints are deleted, see `truncate`.
+ *
+ * The log stops at the first failed write: the batch may be written in part, so nothing is appended after it.
+ * The futures of the failed batch, of the pending one and of all later appends complete exceptionally,
+ * with either ack mode, until the process is restarted and recovers the log. Once the log is failed,
+ * the documents reject new changes before applying them, see `isAvailable`.
+ */
+@Component
+public class WriteAheadLog implements StorageListener, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final byte CREATED = 1;
+    private static final byte RENAMED = 2;
+    private static final byte REMOVED = 3;
+    private static final byte CHANGES_ADDED = 4;
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final Path directory;
+    private final boolean ackDurable;
+    private final long segmentSize;
+
+    private final Object lock = new Object();
+    private ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    private int batchRecords = 0;
+    private List<CompletableFuture<Void>> batchWaiters = new ArrayList<>();
+    private boolean closed = false;
+    private IOException failure;
+    private long appendedSequence = 0;
+
+    /*
+     * Accessed only by the flusher thread after recovery.
+     */
+    private long nextSequence = 0;
+    private FileChannel segment;
+    private Thread flusher;
+
+    public WriteAheadLog(
+            @Value("${storage.wal.directory:}") String directory,
+            @Value("${storage.wal.ack:durable}") String ack,
+            @Value("${storage.wal.segment-size:67108864}") long segmentSize
+    ) {
+        this.directory = directory.isEmpty() ? null : Paths.get(directory);
+        if (!ack.equals("durable") && !ack.equals("applied")) {
+            throw new IllegalArgumentException("Unknown storage.wal.ack: " + ack + ", expected durable or applied");
+        }
+        this.ackDurable = ack.equals("durable");
+        this.segmentSize = segmentSize;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /*
+     * Log of one shard of ShardedStorage, in its own subdirectory and with its own flusher.
+     */
+    public WriteAheadLog forShard(int shard) {
+        return new WriteAheadLog(
+                isEnabled() ? directory.resolve(ShardMarker.shardDirectory(shard)).toString() : "",
+                ackDurable ? "durable" : "applied",
+                segmentSize
+        );
+    }
+
+    /*
+     * Throws IllegalStateException if the log is written with another number of shards, see ShardMarker.
+     */
+    public void checkShardCount(int shardCount) throws IOException {
+        if (isEnabled()) {
+            ShardMarker.check(directory, shardCount, SEGMENT_SUFFIX);
+        }
+    }
+
+    /*
+     * Passes all logged records to the `listener` in the order they were appended,
+     * then starts a new segment and the flusher thread. The futures returned by the listener are ignored.
+     */
+    public void recover(StorageListener listener) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            nextSequence = replaySegment(segments.get(i), i == segments.size() - 1, listener);
+        }
+        synchronized (lock) {
+            appendedSequence = nextSequence;
+        }
+        openSegment();
+        flusher = new Thread(this::flush, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public CompletableFuture<Void> documentCreated(long id, String name) {
+        return append(out -> {
+            out.writeByte(CREATED);
+            out.writeLong(id);
+            writeString(out, name);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> documentRenamed(long id, String name) {
+        return append(out -> {
+            out.writeByte(RENAMED);
+            out.writeLong(id);
+            writeString(out, name);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> documentRemoved(long id) {
+        return append(out -> {
+            out.writeByte(REMOVED);
+            out.writeLong(id);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> changesAdded(long id, int fromVersion, List<? extends Change> changes) {
+        return append(out -> {
+            out.writeByte(CHANGES_ADDED);
+            out.writeLong(id);
+            out.writeInt(fromVersion);
+            out.writeInt(changes.size());
+            for (Change change : changes) {
+                writeChange(out, change);
+            }
+        });
+    }
+
+    public boolean isFailed() {
+        synchronized (lock) {
+            return failure != null;
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !isFailed();
+    }
+
+    /*
+     * Sequence number of the next appended record.
+     */
+    public long getAppendedSequence() {
+        synchronized (lock) {
+            return appendedSequence;
+        }
+    }
+
+    /*
+     * Deletes the segments that hold only records before `sequence`. The current segment is never deleted.
+     */
+    public void truncate(long sequence) throws IOException {
+        List<Path> segments = listSegments();
+        for (int i = 0; i + 1 < segments.size() && firstSequence(segments.get(i + 1)) <= sequence; i++) {
+            Files.delete(segments.get(i));
+        }
+    }
+
+    /*
+     * Forces the pending records and stops the flusher.
+     */
+    @Override
+    public void destroy() throws InterruptedException, IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        if (flusher != null) {
+            flusher.join();
+            segment.close();
+        }
+    }
+
+    private CompletableFuture<Void> append(RecordWriter writer) {
+        if (directory == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            writer.write(new DataOutputStream(body));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            if (failure != null) {
+                CompletableFuture<Void> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(failedException());
+                return rejected;
+            }
+            DataOutputStream out = new DataOutputStream(batch);
+            try {
+                out.writeInt(body.size());
+                out.writeInt((int) crc.getValue());
+                body.writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            batchRecords++;
+            appendedSequence++;
+            lock.notifyAll();
+            if (!ackDurable) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            batchWaiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            ByteArrayOutputStream data;
+            int records;
+            List<CompletableFuture<Void>> waiters;
+            synchronized (lock) {
+                while (batch.size() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (batch.size() == 0) {
+                    return;
+                }
+                data = batch;
+                records = batchRecords;
+                waiters = batchWaiters;
+                batch = new ByteArrayOutputStream();
+                batchRecords = 0;
+                batchWaiters = new ArrayList<>();
+            }
+            try {
+                if (segment.position() > 0 && segment.position() + data.size() > segmentSize) {
+                    segment.close();
+                    openSegment();
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(data.toByteArray());
+                while (buffer.hasRemaining()) {
+                    segment.write(buffer);
+                }
+                segment.force(false);
+                nextSequence += records;
+                waiters.forEach(waiter -> waiter.complete(null));
+            } catch (IOException e) {
+                fail(e, waiters);
+                return;
+            }
+        }
+    }
+
+    /*
+     * Stops the log after a failed write of a batch with the `waiters`, see the class comment.
+     */
+    private void fail(IOException e, List<CompletableFuture<Void>> waiters) {
+        log.error("Write-ahead log failed at sequence " + nextSequence + ", no more records are logged", e);
+        List<CompletableFuture<Void>> pendingWaiters;
+        synchronized (lock) {
+            failure = e;
+            appendedSequence = nextSequence;
+            pendingWaiters = batchWaiters;
+            batch = new ByteArrayOutputStream();
+            batchRecords = 0;
+            batchWaiters = new ArrayList<>();
+        }
+        UncheckedIOException exception = failedException();
+        waiters.forEach(waiter -> waiter.completeExceptionally(exception));
+        pendingWaiters.forEach(waiter -> waiter.completeExceptionally(exception));
+    }
+
+    private UncheckedIOException failedException() {
+        return new UncheckedIOException("Write-ahead log failed", failure);
+    }
+
+    private void openSegment() throws IOException {
+        Path path = directory.resolve(String.format("%020d", nextSequence) + SEGMENT_SUFFIX);
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segment.position(segment.size());
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /*
+     * Returns the sequence number after the last record of the segment.
+     */
+    private long replaySegment(Path path, boolean last, StorageListener listener) throws IOException {
+        long sequence = firstSequence(path);
+        byte[] data = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            int recordStart = buffer.position();
+            byte[] body = readRecord(buffer);
+            if (body == null) {
+                if (!last) {
+                    throw new IOException("Write-ahead log segment " + path + " is corrupted at " + recordStart);
+                }
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(recordStart);
+                }
+                break;
+            }
+            replayRecord(new DataInputStream(new ByteArrayInputStream(body)), listener);
+            sequence++;
+        }
+        return sequence;
+    }
+
+    private static long firstSequence(Path segment) {
+        String fileName = segment.getFileName().toString();
+        return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /*
+     * Returns null if the record is torn.
+     */
+    private static byte[] readRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < 8) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length < 0 || buffer.remaining() < length) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        buffer.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue() == checksum ? body : null;
+    }
+
+    private static void replayRecord(DataInputStream in, StorageListener listener) throws IOException {
+        byte type = in.readByte();
+        long id = in.readLong();
+        switch (type) {
+            case CREATED:
+                listener.documentCreated(id, readString(in));
+                break;
+            case RENAMED:
+                listener.documentRenamed(id, readString(in));
+                break;
+            case REMOVED:
+                listener.documentRemoved(id);
+                break;
+            case CHANGES_ADDED:
+                int fromVersion = in.readInt();
+                int count = in.readInt();
+                List<ChangeImpl> changes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    changes.add(readChange(in));
+                }
+                listener.changesAdded(id, fromVersion, changes);
+                break;
+            default:
+                throw new IOException("Unknown write-ahead log record type: " + type);
+        }
+    }
+
+    /*
+     * The change encoding is shared with the checkpoints, see CheckpointStore.
+     */
+    static void writeChange(DataOutputStream out, Change change) throws IOException {
+        out.writeByte(change.getOperation() == Operation.INSERT ? 0 : 1);
+        out.writeInt(change.getStartPosition());
+        out.writeLong(change.getUserId());
+        writeString(out, change.getText());
+    }
+
+    static ChangeImpl readChange(DataInputStream in) throws IOException {
+        Operation operation = in.readByte() == 0 ? Operation.INSERT : Operation.DELETE;
+        int startPosition = in.readInt();
+        long userId = in.readLong();
+        return new ChangeImpl(startPosition, operation, readString(in), userId);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+}
@@ -14,11 +14,15 @@ public class ApiError {
     private final String path;
 
     ApiError(HttpStatus status, String message, HttpServletRequest request) {
+        this(status, message, request.getServletPath());
+    }
+
+    ApiError(HttpStatus status, String message, String path) {
         this.timestamp = new Date();
         this.status = status.value();
         this.error = status.getReasonPhrase();
         this.message = message;
-        this.path = request.getServletPath();
+        this.path = path;
     }
 
     public Date getTimestamp() {
@@ -0,0 +1,272 @@
+package service;
+
+import model.*;
+import org.springframework.http.MediaType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Compact binary alternative to JSON for edits and changes, negotiated by `Accept` and `Content-Type`.
+ *
+ * Each message starts with a tag byte. Integers are varints, signed ones are zigzag encoded, strings are
+ * the UTF-8 length and bytes. In lists, versions, positions and user ids are written as deltas from the previous
+ * element and the operation is packed into the lowest bit of a varint, so a one symbol insertion takes a few bytes.
+ *
+ * EDIT      fromVersion, startPosition << 1 | operation, symbols or symbolsCount
+ * EDITS     count, then fromVersion delta, startPosition delta << 1 | operation, symbols or symbolsCount
+ * CHANGES   count, then id delta << 1 | operation, startPosition delta, userId delta, text
+ * RESYNC    version, text, changes without the tag
+ * DOCUMENT  id, version, baseVersion, name, text
+ * ERROR     status, error, message, path, timestamp
+ */
+final class BinaryWireFormat {
+
+    static final MediaType MEDIA_TYPE = new MediaType("application", "vnd.documents+binary");
+
+    static final int EDIT = 1;
+    static final int EDITS = 2;
+    static final int CHANGES = 3;
+    static final int RESYNC = 4;
+    static final int DOCUMENT = 5;
+    static final int ERROR = 6;
+
+    private static final int DELETE = 1;
+    private static final int MAX_STRING_LENGTH = 1 << 24;
+
+    private BinaryWireFormat() {
+    }
+
+    static boolean canWrite(Class<?> clazz) {
+        return List.class.isAssignableFrom(clazz) || EncodedChanges.class.isAssignableFrom(clazz) ||
+                Resync.class.isAssignableFrom(clazz) || DocumentSnapshot.class.isAssignableFrom(clazz) ||
+                ApiError.class.isAssignableFrom(clazz) || Edit.class.isAssignableFrom(clazz);
+    }
+
+    /*
+     * Lists are written as changes, the elements must be changes.
+     */
+    static void write(Object value, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        if (value instanceof List) {
+            writer.writeVarInt(CHANGES);
+            writeChanges(writer, (List<?>) value);
+        } else if (value instanceof EncodedChanges) {
+            writer.writeVarInt(CHANGES);
+            writeChanges(writer, ((EncodedChanges) value).getChanges());
+        } else if (value instanceof Resync) {
+            Resync resync = (Resync) value;
+            writer.writeVarInt(RESYNC);
+            writer.writeVarInt(resync.getVersion());
+            writer.writeString(resync.getText());
+            writeChanges(writer, resync.getChanges());
+        } else if (value instanceof DocumentSnapshot) {
+            DocumentSnapshot snapshot = (DocumentSnapshot) value;
+            writer.writeVarInt(DOCUMENT);
+            writer.writeVarLong(snapshot.getId());
+            writer.writeVarInt(snapshot.getVersion());
+            writer.writeVarInt(snapshot.getBaseVersion());
+            writer.writeString(snapshot.getName());
+            writer.writeString(snapshot.getText());
+        } else if (value instanceof ApiError) {
+            ApiError error = (ApiError) value;
+            writer.writeVarInt(ERROR);
+            writer.writeVarInt(error.getStatus());
+            writer.writeString(error.getError());
+            writer.writeString(error.getMessage());
+            writer.writeString(error.getPath());
+            writer.writeVarLong(error.getTimestamp().getTime());
+        } else if (value instanceof Edit) {
+            Edit edit = (Edit) value;
+            writer.writeVarInt(EDIT);
+            writer.writeVarInt(edit.getFromVersion());
+            writeEdit(writer, edit, edit.getStartPosition());
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + value.getClass().getName());
+        }
+    }
+
+    static EditImpl readEdit(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        reader.expectTag(EDIT);
+        int fromVersion = reader.readVarInt();
+        return readEdit(reader, fromVersion, 0);
+    }
+
+    static List<EditImpl> readEdits(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        reader.expectTag(EDITS);
+        int count = reader.readVarInt();
+        List<EditImpl> edits = new ArrayList<>();
+        int fromVersion = 0;
+        int startPosition = 0;
+        for (int i = 0; i < count; i++) {
+            fromVersion += reader.readSignedVarInt();
+            EditImpl edit = readEdit(reader, fromVersion, startPosition);
+            startPosition = edit.getStartPosition();
+            edits.add(edit);
+        }
+        return edits;
+    }
+
+    static void writeEdits(List<? extends Edit> edits, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeVarInt(EDITS);
+        writer.writeVarInt(edits.size());
+        int fromVersion = 0;
+        int startPosition = 0;
+        for (Edit edit : edits) {
+            writer.writeSignedVarInt(edit.getFromVersion() - fromVersion);
+            writeEdit(writer, edit, edit.getStartPosition() - startPosition);
+            fromVersion = edit.getFromVersion();
+            startPosition = edit.getStartPosition();
+        }
+    }
+
+    private static void writeEdit(Writer writer, Edit edit, int startPositionDelta) throws IOException {
+        boolean delete = edit.getOperation() == Operation.DELETE;
+        writer.writeVarLong(zigzag(startPositionDelta) << 1 | (delete ? DELETE : 0));
+        if (delete) {
+            writer.writeVarInt(edit.getSymbolsCount());
+        } else {
+            writer.writeString(edit.getSymbols());
+        }
+    }
+
+    private static EditImpl readEdit(Reader reader, int fromVersion, int previousStartPosition) throws IOException {
+        long value = reader.readVarLong();
+        int startPosition = previousStartPosition + (int) unzigzag(value >>> 1);
+        if ((value & DELETE) != 0) {
+            return EditImpl.constructDelete(fromVersion, startPosition, reader.readVarInt());
+        }
+        return EditImpl.constructInsert(fromVersion, startPosition, reader.readString());
+    }
+
+    private static void writeChanges(Writer writer, List<?> changes) throws IOException {
+        writer.writeVarInt(changes.size());
+        long id = 0;
+        int startPosition = 0;
+        long userId = 0;
+        for (Object element : changes) {
+            if (!(element instanceof Change)) {
+                throw new IllegalArgumentException("Unsupported list element: " + element);
+            }
+            Change change = (Change) element;
+            boolean delete = change.getOperation() == Operation.DELETE;
+            writer.writeVarLong(zigzag(change.getId() - id) << 1 | (delete ? DELETE : 0));
+            writer.writeSignedVarInt(change.getStartPosition() - startPosition);
+            writer.writeVarLong(zigzag(change.getUserId() - userId));
+            writer.writeString(change.getText());
+            id = change.getId();
+            startPosition = change.getStartPosition();
+            userId = change.getUserId();
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static final class Writer {
+
+        private final OutputStream out;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeVarInt(int value) throws IOException {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeSignedVarInt(int value) throws IOException {
+            writeVarLong(zigzag(value));
+        }
+
+        void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+    }
+
+    static final class Reader {
+
+        private final InputStream in;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        void expectTag(int tag) throws IOException {
+            int actualTag = readVarInt();
+            if (actualTag != tag) {
+                throw new IOException("Unexpected message tag: " + actualTag);
+            }
+        }
+
+        int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value >>> 32 != 0) {
+                throw new IOException("Varint is out of range");
+            }
+            return (int) value;
+        }
+
+        int readSignedVarInt() throws IOException {
+            return (int) unzigzag(readVarLong());
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Varint is too long");
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            if (length < 0 || length > MAX_STRING_LENGTH) {
+                throw new IOException("String is too long");
+            }
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int count = in.read(bytes, offset, length - offset);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                offset += count;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.Change;
+import model.DocumentSnapshot;
+import model.PlainTextDocument;
+import model.VersionNotRetainedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Fan-out of the changes of one document to its WebSocket sessions.
+ *
+ * The channel waits for the next version of the document, encodes the new changes once
+ * and passes the same frame to every subscriber. The next wait starts after the broadcast,
+ * so broadcasts of one channel never overlap and the document writer never waits for them.
+ * Versions added during a broadcast are sent by the same broadcast in a loop, not by a nested one.
+ * If a broadcast fails, the subscribers get a resync instead of the changes and the channel goes on.
+ *
+ * A subscriber can receive a change it already knows, for example after a resync.
+ * Each change id is its version, clients skip changes with ids not greater than their local version.
+ *
+ * The ack of an edit is queued after the changes up to its version, so a client that gets the ack
+ * has all the changes it covers, including the changes of other sessions.
+ */
+class DocumentChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentChannel.class);
+
+    private final PlainTextDocument document;
+    private final ObjectMapper objectMapper;
+
+    private final Set<SocketSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private int sentVersion;
+    private CompletableFuture<Integer> nextVersion;
+    private boolean broadcasting;
+
+    /*
+     * Versions of the acks waiting for their broadcast, in the order of the edits of each subscriber.
+     */
+    private final Map<SocketSubscriber, Queue<Integer>> pendingAcks = new HashMap<>();
+
+    DocumentChannel(PlainTextDocument document, ObjectMapper objectMapper) {
+        this.document = document;
+        this.objectMapper = objectMapper;
+        this.sentVersion = document.getVersion();
+    }
+
+    PlainTextDocument getDocument() {
+        return document;
+    }
+
+    /*
+     * The subscriber first gets the changes after `fromVersion` that are already broadcasted.
+     */
+    synchronized void subscribe(SocketSubscriber subscriber, int fromVersion) {
+        if (fromVersion < sentVersion) {
+            try {
+                List<Change> changes = document.getSnapshot().getChanges(fromVersion, sentVersion);
+                subscriber.send(encode(SocketMessage.changes(changes)));
+            } catch (VersionNotRetainedException e) {
+                subscriber.send(encodeResync());
+            }
+        }
+        subscribers.add(subscriber);
+        if (nextVersion == null) {
+            awaitNextVersion();
+        }
+    }
+
+    /*
+     * Returns true if it was the last subscriber, the channel is closed then.
+     */
+    synchronized boolean unsubscribe(SocketSubscriber subscriber) {
+        subscribers.remove(subscriber);
+        pendingAcks.remove(subscriber);
+        if (!subscribers.isEmpty()) {
+            return false;
+        }
+        if (nextVersion != null) {
+            nextVersion.cancel(false);
+            nextVersion = null;
+        }
+        return true;
+    }
+
+    /*
+     * Sends the ack at once if `version` is already broadcasted, otherwise after its broadcast.
+     */
+    synchronized void sendAck(SocketSubscriber subscriber, int version) {
+        Queue<Integer> versions = pendingAcks.get(subscriber);
+        if (version <= sentVersion && versions == null) {
+            subscriber.send(encode(SocketMessage.ack(version)));
+            return;
+        }
+        pendingAcks.computeIfAbsent(subscriber, key -> new ArrayDeque<>()).add(version);
+    }
+
+    byte[] encodeResync() {
+        return encode(SocketMessage.resync(document.createResync()));
+    }
+
+    byte[] encode(SocketMessage message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void awaitNextVersion() {
+        CompletableFuture<Integer> version = document.awaitVersion(sentVersion);
+        nextVersion = version;
+        version.thenRun(() -> broadcast(version));
+    }
+
+    /*
+     * A version that is already there completes the wait at once and calls back on the same thread,
+     * such a nested call returns and the loop of the running broadcast sends the version.
+     */
+    private synchronized void broadcast(CompletableFuture<Integer> version) {
+        if (version != nextVersion || broadcasting) {
+            return;
+        }
+        broadcasting = true;
+        try {
+            do {
+                try {
+                    while (!subscribers.isEmpty() && document.getVersion() > sentVersion) {
+                        sendChanges();
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Broadcast of document " + document.getId() + " failed, the subscribers are resynced", e);
+                    sentVersion = document.getVersion();
+                    subscribers.forEach(SocketSubscriber::requireResync);
+                    sendPendingAcks();
+                }
+                if (subscribers.isEmpty()) {
+                    nextVersion = null;
+                } else {
+                    awaitNextVersion();
+                }
+            } while (nextVersion != null && nextVersion.isDone());
+        } finally {
+            broadcasting = false;
+        }
+    }
+
+    private void sendChanges() {
+        DocumentSnapshot snapshot = document.getSnapshot();
+        byte[] frame;
+        try {
+            frame = encode(SocketMessage.changes(snapshot.getChanges(sentVersion)));
+        } catch (VersionNotRetainedException e) {
+            frame = encode(SocketMessage.resync(snapshot.createResync()));
+        }
+        sentVersion = snapshot.getVersion();
+        for (SocketSubscriber subscriber : subscribers) {
+            subscriber.send(frame);
+        }
+        sendPendingAcks();
+    }
+
+    private void sendPendingAcks() {
+        pendingAcks.entrySet().removeIf(entry -> {
+            Queue<Integer> versions = entry.getValue();
+            while (!versions.isEmpty() && versions.peek() <= sentVersion) {
+                entry.getKey().send(encode(SocketMessage.ack(versions.poll())));
+            }
+            return versions.isEmpty();
+        });
+    }
+
+}
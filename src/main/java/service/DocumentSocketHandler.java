@@ -0,0 +1,168 @@
+package service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.*;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * WebSocket channel of a document: ws://host/documents/{id}/socket?fromVersion=
+ *
+ * The client sends edits as text messages, one edit or a batch of edits in the same JSON as the HTTP API.
+ * The server pushes every new change of the document to all its sessions, see SocketMessage.
+ * Without `fromVersion` the session starts from the current version of the document.
+ * The client acknowledges the version it has applied with {"ack": version}, see RetentionPolicy,
+ * the version of the subscription and of every edit is acknowledged as well.
+ * On a replication follower the edits are rejected with an error message.
+ */
+@Component
+@Profile("!reactive")
+public class DocumentSocketHandler extends TextWebSocketHandler implements DisposableBean {
+
+    private static final String CHANNEL = "channel";
+    private static final String SUBSCRIBER = "subscriber";
+    private static final String USER_ID = "userId";
+
+    private final Storage storage;
+    private final Processor processor;
+    private final Replication replication;
+    private final ObjectMapper objectMapper;
+    private final int bufferSizeLimit;
+
+    private final Map<Long, DocumentChannel> channels = new ConcurrentHashMap<>();
+    private final ExecutorService sender = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors())
+    );
+
+    public DocumentSocketHandler(
+            Storage storage,
+            Processor processor,
+            Replication replication,
+            ObjectMapper objectMapper,
+            @Value("${socket.buffer-size-limit:1048576}") int bufferSizeLimit
+    ) {
+        this.storage = storage;
+        this.processor = processor;
+        this.replication = replication;
+        this.objectMapper = objectMapper;
+        this.bufferSizeLimit = bufferSizeLimit;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        UriComponents uri = UriComponentsBuilder.fromUri(session.getUri()).build();
+        List<String> path = uri.getPathSegments();
+        PlainTextDocument document = storage.getDocument(Long.parseLong(path.get(path.size() - 2)));
+        if (document == null) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Document not found"));
+            return;
+        }
+        String fromVersionParameter = uri.getQueryParams().getFirst("fromVersion");
+        int fromVersion = fromVersionParameter == null ? document.getVersion() : Integer.parseInt(fromVersionParameter);
+        if (fromVersion < 0 || fromVersion > document.getVersion()) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Unknown document version"));
+            return;
+        }
+
+        session.getAttributes().put(USER_ID, (long) session.getId().hashCode());
+        channels.compute(document.getId(), (id, channel) -> {
+            if (channel == null) {
+                channel = new DocumentChannel(document, objectMapper);
+            }
+            SocketSubscriber subscriber = new SocketSubscriber(session, channel, sender, bufferSizeLimit);
+            session.getAttributes().put(CHANNEL, channel);
+            session.getAttributes().put(SUBSCRIBER, subscriber);
+            channel.subscribe(subscriber, fromVersion);
+            return channel;
+        });
+        document.acknowledge(session.getId(), fromVersion);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        DocumentChannel channel = (DocumentChannel) session.getAttributes().get(CHANNEL);
+        SocketSubscriber subscriber = (SocketSubscriber) session.getAttributes().get(SUBSCRIBER);
+        long userId = (long) session.getAttributes().get(USER_ID);
+
+        PlainTextDocument document = channel.getDocument();
+
+        List<EditImpl> edits;
+        try {
+            JsonNode tree = objectMapper.readTree(message.getPayload());
+            if (tree == null) {
+                throw new IOException("Empty message");
+            }
+            if (tree.isObject() && tree.has("ack")) {
+                int version = tree.get("ack").asInt(-1);
+                if (version < 0 || version > document.getVersion()) {
+                    subscriber.send(channel.encode(SocketMessage.error("Unknown document version")));
+                } else {
+                    document.acknowledge(session.getId(), version);
+                }
+                return;
+            }
+            edits = tree.isArray() ?
+                    objectMapper.readValue(objectMapper.treeAsTokens(tree), new TypeReference<List<EditImpl>>() {}) :
+                    Collections.singletonList(objectMapper.treeToValue(tree, EditImpl.class));
+        } catch (IOException e) {
+            subscriber.send(channel.encode(SocketMessage.error("Malformed edit")));
+            return;
+        }
+
+        if (replication.isReadOnly()) {
+            subscriber.send(channel.encode(SocketMessage.error("Documents are read-only replicas")));
+            return;
+        }
+        try {
+            if (!edits.isEmpty()) {
+                document.acknowledge(session.getId(), edits.get(0).getFromVersion());
+            }
+            List<Change> changes = processor.processEdits(document, edits, userId);
+            int version = changes.isEmpty() ?
+                    edits.get(0).getFromVersion() : (int) changes.get(changes.size() - 1).getId();
+            channel.sendAck(subscriber, version);
+        } catch (EditValidationException e) {
+            subscriber.send(channel.encode(SocketMessage.error(e.getMessage())));
+        } catch (VersionNotRetainedException e) {
+            subscriber.send(channel.encodeResync());
+        } catch (EditQueueFullException | StorageUnavailableException e) {
+            subscriber.send(channel.encode(SocketMessage.error(e.getMessage())));
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        DocumentChannel channel = (DocumentChannel) session.getAttributes().get(CHANNEL);
+        SocketSubscriber subscriber = (SocketSubscriber) session.getAttributes().get(SUBSCRIBER);
+        if (channel != null) {
+            channel.getDocument().removeSession(session.getId());
+            channels.computeIfPresent(channel.getDocument().getId(),
+                    (id, current) -> current.unsubscribe(subscriber) ? null : current
+            );
+        }
+    }
+
+    @Override
+    public void destroy() {
+        sender.shutdownNow();
+    }
+
+}
@@ -0,0 +1,48 @@
+package service;
+
+import model.EncodedChanges;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Writes pre-encoded changes straight to the response body, see EncodedChanges.
+ * The response is the same as the list of changes written by Jackson.
+ */
+public class EncodedChangesHttpMessageConverter extends AbstractHttpMessageConverter<EncodedChanges> {
+
+    public EncodedChangesHttpMessageConverter() {
+        super(new MediaType("application", "json", StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return EncodedChanges.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected EncodedChanges readInternal(Class<? extends EncodedChanges> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Encoded changes are write only", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(EncodedChanges changes, MediaType contentType) {
+        return changes.getContentLength();
+    }
+
+    @Override
+    protected void writeInternal(EncodedChanges changes, HttpOutputMessage outputMessage) throws IOException {
+        changes.writeTo(outputMessage.getBody());
+    }
+
+}
@@ -7,17 +7,26 @@ import org.springframework.stereotype.Component;
 @Component
 public class InitTemplate implements InitializingBean {
 
-    private final HashMapStorage storage;
+    private final Storage storage;
 
     private final Processor processor;
 
-    public InitTemplate(HashMapStorage storage, Processor processor) {
+    private final Replication replication;
+
+    /*
+     * Replication is connected to the storage before the template document is created, so the followers get it.
+     */
+    public InitTemplate(Storage storage, Processor processor, Replication replication) {
         this.storage = storage;
         this.processor = processor;
+        this.replication = replication;
     }
 
     @Override
     public void afterPropertiesSet() throws EditValidationException {
+        if (replication.isReadOnly()) {
+            return;
+        }
         PlainTextDocument document = storage.createDocument("First Document");
         processor.processEdit(
                 document,
@@ -1,24 +1,60 @@
 package service;
 
 import model.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
+@Profile("!reactive")
 public class MainController {
 
-    private final HashMapStorage storage;
+    /*
+     * Version of the snapshot a text range is read from.
+     */
+    static final String VERSION_HEADER = "X-Document-Version";
+
+    private final Storage storage;
     private final Processor processor;
+    private final RetentionPolicy retentionPolicy;
+    private final Replication replication;
+
+    /*
+     * Seconds a client waits before it resends edits rejected by a full edit queue.
+     */
+    private final long retryAfter;
+
+    /*
+     * Milliseconds a long poll is parked at most, a longer timeout of the client is cut to it.
+     */
+    private final long maxPollTimeout;
 
-    public MainController(HashMapStorage storage, Processor processor) {
+    public MainController(
+            Storage storage,
+            Processor processor,
+            RetentionPolicy retentionPolicy,
+            Replication replication,
+            @Value("${processor.queue.retry-after:1}") long retryAfter,
+            @Value("${document.poll.max-timeout:60000}") long maxPollTimeout
+    ) {
         this.storage = storage;
         this.processor = processor;
+        this.retentionPolicy = retentionPolicy;
+        this.replication = replication;
+        this.retryAfter = retryAfter;
+        this.maxPollTimeout = maxPollTimeout;
     }
 
     @RequestMapping(value = "/documents/{id}", method = RequestMethod.GET)
@@ -27,12 +63,45 @@ public class MainController {
             @PathVariable("id") long id,
             HttpServletRequest request
     ) {
-        Document document = storage.getDocument(id);
+        PlainTextDocument document = storage.getDocument(id);
         if (document == null) {
             HttpStatus status = HttpStatus.NOT_FOUND;
             return new ResponseEntity<>(new ApiError(status, "Document not found", request), status);
         }
-        return new ResponseEntity<>(document, HttpStatus.OK);
+        acknowledge(document, document.getVersion());
+        return new ResponseEntity<>(document.getSnapshot(), HttpStatus.OK);
+    }
+
+    /*
+     * Text of the document in the range [from, to), the whole text by default.
+     * The range is read from one snapshot and written from its text buffer without building the text,
+     * the version of the snapshot is in the X-Document-Version header. See TextRange.
+     */
+    @RequestMapping(value = "/documents/{id}/text", method = RequestMethod.GET)
+    @ResponseBody
+    public ResponseEntity getDocumentText(
+            @PathVariable("id") long id,
+            @RequestParam(defaultValue = "0") int from,
+            @RequestParam(required = false) Integer to,
+            HttpServletRequest request
+    ) {
+        PlainTextDocument document = storage.getDocument(id);
+        if (document == null) {
+            HttpStatus status = HttpStatus.NOT_FOUND;
+            return new ResponseEntity<>(new ApiError(status, "Document not found", request), status);
+        }
+
+        DocumentSnapshot snapshot = document.getSnapshot();
+        int end = to == null ? snapshot.getTextLength() : to;
+        if (from < 0 || from > end || end > snapshot.getTextLength()) {
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            return new ResponseEntity<>(new ApiError(status, "Text range is out of bounds", request), status);
+        }
+        acknowledge(document, snapshot.getVersion());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(VERSION_HEADER, Integer.toString(snapshot.getVersion()));
+        return new ResponseEntity<>(snapshot.getTextRange(from, end), headers, HttpStatus.OK);
     }
 
     @RequestMapping(value = "/documents/{id}/changes", method = RequestMethod.GET)
@@ -42,7 +111,7 @@ public class MainController {
             @RequestParam int fromVersion,
             HttpServletRequest request
     ) {
-        Document document = storage.getDocument(id);
+        PlainTextDocument document = storage.getDocument(id);
         if (document == null) {
             HttpStatus status = HttpStatus.NOT_FOUND;
             return new ResponseEntity<>(new ApiError(status, "Document not found", request), status);
@@ -52,16 +121,104 @@ public class MainController {
             HttpStatus status = HttpStatus.BAD_REQUEST;
             return new ResponseEntity<>(new ApiError(status, "Unknown document version", request), status);
         }
+        acknowledge(document, fromVersion);
 
-        return new ResponseEntity<>(document.getChanges(fromVersion), HttpStatus.OK);
+        DocumentSnapshot snapshot = document.getSnapshot();
+
+        try {
+            return new ResponseEntity<>(snapshot.getEncodedChanges(fromVersion), HttpStatus.OK);
+        } catch (VersionNotRetainedException e) {
+            return new ResponseEntity<>(snapshot.createResync(), HttpStatus.OK);
+        }
+    }
+
+    /*
+     * Long polling of document changes.
+     * The request is parked without holding a servlet thread until the document version gets greater than
+     * `fromVersion`, then the new changes are returned. After the timeout an empty list is returned.
+     * The timeout is at most `document.poll.max-timeout` milliseconds.
+     */
+    @RequestMapping(value = "/documents/{id}/changes/poll", method = RequestMethod.GET)
+    @ResponseBody
+    public DeferredResult<ResponseEntity> pollDocumentChanges(
+            @PathVariable("id") long id,
+            @RequestParam int fromVersion,
+            @RequestParam(defaultValue = "30000") long timeout,
+            HttpServletRequest request
+    ) {
+        DeferredResult<ResponseEntity> result = new DeferredResult<>(
+                Math.min(Math.max(timeout, 1), maxPollTimeout),
+                new ResponseEntity<>(Collections.emptyList(), HttpStatus.OK)
+        );
+        if (timeout <= 0) {
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            ApiError error = new ApiError(status, "Poll timeout must be positive", request);
+            result.setResult(new ResponseEntity<>(error, status));
+            return result;
+        }
+
+        PlainTextDocument document = storage.getDocument(id);
+        if (document == null) {
+            HttpStatus status = HttpStatus.NOT_FOUND;
+            result.setResult(new ResponseEntity<>(new ApiError(status, "Document not found", request), status));
+            return result;
+        }
+
+        if (fromVersion < 0 || fromVersion > document.getVersion()) {
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            result.setResult(new ResponseEntity<>(new ApiError(status, "Unknown document version", request), status));
+            return result;
+        }
+        acknowledge(document, fromVersion);
+
+        CompletableFuture<Integer> version = document.awaitVersion(fromVersion);
+        result.onCompletion(() -> version.cancel(false));
+        version.thenRun(() -> {
+            DocumentSnapshot snapshot = document.getSnapshot();
+            try {
+                result.setResult(new ResponseEntity<>(snapshot.getEncodedChanges(fromVersion), HttpStatus.OK));
+            } catch (VersionNotRetainedException e) {
+                result.setResult(new ResponseEntity<>(snapshot.createResync(), HttpStatus.OK));
+            }
+        });
+        return result;
     }
 
     @RequestMapping(value = "/documents", method = RequestMethod.POST)
     @ResponseBody
     public ResponseEntity createDocument(
-            @RequestParam String name
+            @RequestParam String name,
+            HttpServletRequest request
     ) {
-        return new ResponseEntity<>(storage.createDocument(name), HttpStatus.CREATED);
+        if (replication.isReadOnly()) {
+            return readOnly(request);
+        }
+        PlainTextDocument document = storage.createDocument(name);
+        acknowledge(document, document.getVersion());
+        return new ResponseEntity<>(document.getSnapshot(), HttpStatus.CREATED);
+    }
+
+    /*
+     * The session has the document at `version`, the changes up to it may be folded, see RetentionPolicy.
+     */
+    @RequestMapping(value = "/documents/{id}/ack", method = RequestMethod.POST)
+    @ResponseBody
+    public ResponseEntity acknowledgeVersion(
+            @PathVariable("id") long id,
+            @RequestParam int version,
+            HttpServletRequest request
+    ) {
+        PlainTextDocument document = storage.getDocument(id);
+        if (document == null) {
+            HttpStatus status = HttpStatus.NOT_FOUND;
+            return new ResponseEntity<>(new ApiError(status, "Document not found", request), status);
+        }
+        if (version < 0 || version > document.getVersion()) {
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            return new ResponseEntity<>(new ApiError(status, "Unknown document version", request), status);
+        }
+        acknowledge(document, version);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
 
     @RequestMapping(value = "/documents/{id}/name", method = RequestMethod.PUT)
@@ -71,14 +228,20 @@ public class MainController {
             @RequestParam String name,
             HttpServletRequest request
     ) {
+        if (replication.isReadOnly()) {
+            return readOnly(request);
+        }
         PlainTextDocument document = storage.getDocument(id);
         if (document == null) {
             HttpStatus status = HttpStatus.NOT_FOUND;
             return new ResponseEntity<>(new ApiError(status, "Document not found", request), status);
-        } else {
+        }
+        try {
             document.setName(name);
-            return new ResponseEntity<>(document, HttpStatus.OK);
+        } catch (StorageUnavailableException e) {
+            return storageUnavailable(e, request);
         }
+        return new ResponseEntity<>(document.getSnapshot(), HttpStatus.OK);
     }
 
     @RequestMapping(value = "/documents/{id}", method = RequestMethod.DELETE)
@@ -87,36 +250,97 @@ public class MainController {
             @PathVariable("id") long id,
             HttpServletRequest request
     ) {
+        if (replication.isReadOnly()) {
+            return readOnly(request);
+        }
         PlainTextDocument document = storage.removeDocument(id);
         if (document == null) {
             HttpStatus status = HttpStatus.NOT_FOUND;
             return new ResponseEntity<>(new ApiError(status, "Document not found", request), status);
         }
-        return new ResponseEntity<>(document, HttpStatus.OK);
+        return new ResponseEntity<>(document.getSnapshot(), HttpStatus.OK);
     }
 
 
     @RequestMapping(value = "/documents/{id}/changes", method = RequestMethod.PUT)
     @ResponseBody
-    public ResponseEntity editDocument(
+    public CompletableFuture<ResponseEntity> editDocument(
             @PathVariable("id") long id,
             @Valid @RequestBody EditImpl edit,
             HttpServletRequest request
     ) {
+        return editDocumentBatch(id, Collections.singletonList(edit), request);
+    }
+
+    /*
+     * Batch of edits from the local history of one user, see Processor::processEdits.
+     *
+     * The edits are queued to the document and processed on the processor pool, see Processor::submitEdits,
+     * the servlet thread is released at once. If the edit queue of the document is full, the request is answered
+     * with 429 Too Many Requests and Retry-After.
+     */
+    @RequestMapping(value = "/documents/{id}/changes/batch", method = RequestMethod.PUT)
+    @ResponseBody
+    public CompletableFuture<ResponseEntity> editDocumentBatch(
+            @PathVariable("id") long id,
+            @Valid @RequestBody List<EditImpl> edits,
+            HttpServletRequest request
+    ) {
+        if (replication.isReadOnly()) {
+            return CompletableFuture.completedFuture(readOnly(request));
+        }
         PlainTextDocument document = storage.getDocument(id);
         if (document == null) {
             HttpStatus status = HttpStatus.NOT_FOUND;
-            return new ResponseEntity<>(new ApiError(status, "Document not found", request), status);
+            return CompletableFuture.completedFuture(
+                    new ResponseEntity<>(new ApiError(status, "Document not found", request), status)
+            );
         }
-        long userId = RequestContextHolder.currentRequestAttributes().getSessionId().hashCode();
-        List<Change> resultChanges;
-        try {
-            resultChanges = processor.processEdit(document, edit, userId);
-        } catch (EditValidationException e) {
-            HttpStatus status = HttpStatus.BAD_REQUEST;
-            return new ResponseEntity<>(new ApiError(status, e.getMessage(), request), status);
+        if (!edits.isEmpty()) {
+            acknowledge(document, edits.get(0).getFromVersion());
+        }
+        return processor.submitEdits(document, edits, getUserId()).handle((resultChanges, e) -> {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause == null) {
+                return new ResponseEntity<>(resultChanges, HttpStatus.OK);
+            } else if (cause instanceof EditValidationException) {
+                HttpStatus status = HttpStatus.BAD_REQUEST;
+                return new ResponseEntity<>(new ApiError(status, cause.getMessage(), request), status);
+            } else if (cause instanceof VersionNotRetainedException) {
+                return new ResponseEntity<>(document.createResync(), HttpStatus.OK);
+            } else if (cause instanceof EditQueueFullException) {
+                HttpStatus status = HttpStatus.TOO_MANY_REQUESTS;
+                return ResponseEntity.status(status)
+                        .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter))
+                        .body(new ApiError(status, cause.getMessage(), request));
+            } else if (cause instanceof StorageUnavailableException) {
+                return storageUnavailable(cause, request);
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    /*
+     * A follower serves reads only, the edits go to the leader, see Replication.
+     */
+    private static ResponseEntity readOnly(HttpServletRequest request) {
+        HttpStatus status = HttpStatus.FORBIDDEN;
+        return new ResponseEntity<>(new ApiError(status, "Documents are read-only replicas", request), status);
+    }
+
+    private static ResponseEntity storageUnavailable(Throwable e, HttpServletRequest request) {
+        HttpStatus status = HttpStatus.SERVICE_UNAVAILABLE;
+        return new ResponseEntity<>(new ApiError(status, e.getMessage(), request), status);
+    }
+
+    private void acknowledge(PlainTextDocument document, int version) {
+        if (retentionPolicy.tracksSessions()) {
+            document.acknowledge(RequestContextHolder.currentRequestAttributes().getSessionId(), version);
         }
-        return new ResponseEntity<>(resultChanges, HttpStatus.OK);
     }
 
-}
\ No newline at end of file
+    private static long getUserId() {
+        return RequestContextHolder.currentRequestAttributes().getSessionId().hashCode();
+    }
+
+}
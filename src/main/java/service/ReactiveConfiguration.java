@@ -0,0 +1,28 @@
+package service;
+
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/*
+ * The `reactive` profile runs the application on WebFlux, see application-reactive.properties and ReactiveController.
+ * Tomcat is on the classpath for the servlet stack, so Netty is selected explicitly.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfiguration implements WebFluxConfigurer {
+
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        configurer.customCodecs().writer(new TextRangeHttpMessageWriter());
+    }
+
+}
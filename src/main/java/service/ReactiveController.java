@@ -0,0 +1,361 @@
+package service;
+
+import model.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.validation.Valid;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/*
+ * The document API of MainController on Spring WebFlux and Netty, enabled by the `reactive` profile.
+ * The binary wire format and the WebSocket channel are served by the servlet stack only.
+ *
+ * No handler blocks an event loop: edits are queued to the processor and the responses are completed by it,
+ * waiting for changes is a callback of the document. Creating, renaming and removing a document wait for
+ * the write-ahead log and, with tiering, finding a document may load its checkpoint, these calls run on
+ * the elastic scheduler.
+ *
+ * `GET /documents/{id}/changes/stream?fromVersion=` is the endless stream of the changes after `fromVersion`
+ * as server-sent events or newline-delimited JSON. The changes are read from the document as the subscriber
+ * requests them, so a slow subscriber holds no buffer. A subscriber behind the retained change log gets an error
+ * and starts again from the document.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveController {
+
+    private final Storage storage;
+    private final Processor processor;
+    private final RetentionPolicy retentionPolicy;
+    private final Replication replication;
+    private final long retryAfter;
+    private final long maxPollTimeout;
+    private final boolean tiering;
+
+    public ReactiveController(
+            Storage storage,
+            Processor processor,
+            RetentionPolicy retentionPolicy,
+            Replication replication,
+            @Value("${processor.queue.retry-after:1}") long retryAfter,
+            @Value("${document.poll.max-timeout:60000}") long maxPollTimeout,
+            @Value("${storage.tiering.max-bytes:0}") long maxResidentBytes
+    ) {
+        this.storage = storage;
+        this.processor = processor;
+        this.retentionPolicy = retentionPolicy;
+        this.replication = replication;
+        this.retryAfter = retryAfter;
+        this.maxPollTimeout = maxPollTimeout;
+        this.tiering = maxResidentBytes > 0;
+    }
+
+    @GetMapping("/documents/{id}")
+    public Mono<ResponseEntity<Object>> getDocument(
+            @PathVariable("id") long id,
+            ServerWebExchange exchange
+    ) {
+        return withDocument(id, exchange, document -> acknowledge(document, document.getVersion(), exchange)
+                .then(Mono.fromSupplier(() -> ResponseEntity.ok(document.getSnapshot()))));
+    }
+
+    /*
+     * Text of the document in the range [from, to), see MainController::getDocumentText.
+     */
+    @GetMapping("/documents/{id}/text")
+    public Mono<ResponseEntity<Object>> getDocumentText(
+            @PathVariable("id") long id,
+            @RequestParam(defaultValue = "0") int from,
+            @RequestParam(required = false) Integer to,
+            ServerWebExchange exchange
+    ) {
+        return withDocument(id, exchange, document -> {
+            DocumentSnapshot snapshot = document.getSnapshot();
+            int end = to == null ? snapshot.getTextLength() : to;
+            if (from < 0 || from > end || end > snapshot.getTextLength()) {
+                return Mono.just(error(HttpStatus.BAD_REQUEST, "Text range is out of bounds", exchange));
+            }
+            return acknowledge(document, snapshot.getVersion(), exchange)
+                    .then(Mono.fromSupplier(() -> ResponseEntity.ok()
+                            .header(MainController.VERSION_HEADER, Integer.toString(snapshot.getVersion()))
+                            .body(snapshot.getTextRange(from, end))));
+        });
+    }
+
+    @GetMapping("/documents/{id}/changes")
+    public Mono<ResponseEntity<Object>> getDocumentChanges(
+            @PathVariable("id") long id,
+            @RequestParam int fromVersion,
+            ServerWebExchange exchange
+    ) {
+        return withDocument(id, exchange, document -> {
+            if (fromVersion < 0 || fromVersion > document.getVersion()) {
+                return Mono.just(error(HttpStatus.BAD_REQUEST, "Unknown document version", exchange));
+            }
+            return acknowledge(document, fromVersion, exchange)
+                    .then(Mono.fromSupplier(() -> changesAfter(document, fromVersion)));
+        });
+    }
+
+    /*
+     * Long polling of document changes, see MainController::pollDocumentChanges.
+     */
+    @GetMapping("/documents/{id}/changes/poll")
+    public Mono<ResponseEntity<Object>> pollDocumentChanges(
+            @PathVariable("id") long id,
+            @RequestParam int fromVersion,
+            @RequestParam(defaultValue = "30000") long timeout,
+            ServerWebExchange exchange
+    ) {
+        if (timeout <= 0) {
+            return Mono.just(error(HttpStatus.BAD_REQUEST, "Poll timeout must be positive", exchange));
+        }
+        return withDocument(id, exchange, document -> {
+            if (fromVersion < 0 || fromVersion > document.getVersion()) {
+                return Mono.just(error(HttpStatus.BAD_REQUEST, "Unknown document version", exchange));
+            }
+            return acknowledge(document, fromVersion, exchange)
+                    .then(awaitVersion(document, fromVersion))
+                    .map(version -> changesAfter(document, fromVersion))
+                    .timeout(
+                            Duration.ofMillis(Math.min(timeout, maxPollTimeout)),
+                            Mono.just(ResponseEntity.ok(Collections.emptyList()))
+                    );
+        });
+    }
+
+    @GetMapping(
+            value = "/documents/{id}/changes/stream",
+            produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE}
+    )
+    public Flux<Change> streamDocumentChanges(
+            @PathVariable("id") long id,
+            @RequestParam(required = false) Integer fromVersion,
+            ServerWebExchange exchange
+    ) {
+        return findDocument(id)
+                .switchIfEmpty(Mono.fromRunnable(() -> exchange.getResponse().setStatusCode(HttpStatus.NOT_FOUND)))
+                .flatMapMany(document -> {
+                    int startVersion = fromVersion == null ? document.getVersion() : fromVersion;
+                    if (startVersion < 0 || startVersion > document.getVersion()) {
+                        exchange.getResponse().setStatusCode(HttpStatus.BAD_REQUEST);
+                        return Flux.empty();
+                    }
+                    AtomicInteger version = new AtomicInteger(startVersion);
+                    return acknowledge(document, startVersion, exchange)
+                            .thenMany(Mono.defer(() -> awaitVersion(document, version.get()))
+                                    .map(ignored -> document.getSnapshot().getChanges(version.get()))
+                                    .doOnNext(changes -> version.set((int) changes.get(changes.size() - 1).getId()))
+                                    .repeat()
+                                    .concatMapIterable(changes -> changes, 1));
+                });
+    }
+
+    @PostMapping("/documents")
+    public Mono<ResponseEntity<Object>> createDocument(
+            @RequestParam String name,
+            ServerWebExchange exchange
+    ) {
+        if (replication.isReadOnly()) {
+            return Mono.just(readOnly(exchange));
+        }
+        return blocking(() -> storage.createDocument(name))
+                .flatMap(document -> acknowledge(document, document.getVersion(), exchange)
+                        .then(Mono.fromSupplier(
+                                () -> ResponseEntity.status(HttpStatus.CREATED).body(document.getSnapshot())
+                        )));
+    }
+
+    @PostMapping("/documents/{id}/ack")
+    public Mono<ResponseEntity<Object>> acknowledgeVersion(
+            @PathVariable("id") long id,
+            @RequestParam int version,
+            ServerWebExchange exchange
+    ) {
+        return withDocument(id, exchange, document -> {
+            if (version < 0 || version > document.getVersion()) {
+                return Mono.just(error(HttpStatus.BAD_REQUEST, "Unknown document version", exchange));
+            }
+            return acknowledge(document, version, exchange)
+                    .then(Mono.just(ResponseEntity.noContent().build()));
+        });
+    }
+
+    @PutMapping("/documents/{id}/name")
+    public Mono<ResponseEntity<Object>> renameDocument(
+            @PathVariable("id") long id,
+            @RequestParam String name,
+            ServerWebExchange exchange
+    ) {
+        if (replication.isReadOnly()) {
+            return Mono.just(readOnly(exchange));
+        }
+        return blocking(() -> {
+            PlainTextDocument document = storage.getDocument(id);
+            if (document == null) {
+                return error(HttpStatus.NOT_FOUND, "Document not found", exchange);
+            }
+            try {
+                document.setName(name);
+            } catch (StorageUnavailableException e) {
+                return error(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), exchange);
+            }
+            return ResponseEntity.ok(document.getSnapshot());
+        });
+    }
+
+    @DeleteMapping("/documents/{id}")
+    public Mono<ResponseEntity<Object>> deleteDocument(
+            @PathVariable("id") long id,
+            ServerWebExchange exchange
+    ) {
+        if (replication.isReadOnly()) {
+            return Mono.just(readOnly(exchange));
+        }
+        return blocking(() -> {
+            PlainTextDocument document = storage.removeDocument(id);
+            if (document == null) {
+                return error(HttpStatus.NOT_FOUND, "Document not found", exchange);
+            }
+            return ResponseEntity.ok(document.getSnapshot());
+        });
+    }
+
+    @PutMapping("/documents/{id}/changes")
+    public Mono<ResponseEntity<Object>> editDocument(
+            @PathVariable("id") long id,
+            @Valid @RequestBody EditImpl edit,
+            ServerWebExchange exchange
+    ) {
+        return editDocumentBatch(id, Collections.singletonList(edit), exchange);
+    }
+
+    /*
+     * Batch of edits from the local history of one user, see MainController::editDocumentBatch.
+     */
+    @PutMapping("/documents/{id}/changes/batch")
+    public Mono<ResponseEntity<Object>> editDocumentBatch(
+            @PathVariable("id") long id,
+            @Valid @RequestBody List<EditImpl> edits,
+            ServerWebExchange exchange
+    ) {
+        if (replication.isReadOnly()) {
+            return Mono.just(readOnly(exchange));
+        }
+        return withDocument(id, exchange, document -> {
+            Mono<Void> acknowledged = edits.isEmpty() ?
+                    Mono.empty() : acknowledge(document, edits.get(0).getFromVersion(), exchange);
+            return acknowledged
+                    .then(getSession(exchange))
+                    .flatMap(session -> Mono.fromFuture(
+                            processor.submitEdits(document, edits, session.getId().hashCode())
+                    ))
+                    .<ResponseEntity<Object>>map(ResponseEntity::ok)
+                    .onErrorResume(EditValidationException.class,
+                            e -> Mono.just(error(HttpStatus.BAD_REQUEST, e.getMessage(), exchange)))
+                    .onErrorResume(VersionNotRetainedException.class,
+                            e -> Mono.just(ResponseEntity.ok(document.createResync())))
+                    .onErrorResume(StorageUnavailableException.class,
+                            e -> Mono.just(error(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), exchange)))
+                    .onErrorResume(EditQueueFullException.class,
+                            e -> Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                                    .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter))
+                                    .body(apiError(HttpStatus.TOO_MANY_REQUESTS, e.getMessage(), exchange))));
+        });
+    }
+
+    /*
+     * Handles the document or responds 404, the handler must not complete empty.
+     */
+    private Mono<ResponseEntity<Object>> withDocument(
+            long id,
+            ServerWebExchange exchange,
+            Function<PlainTextDocument, Mono<ResponseEntity<Object>>> handler
+    ) {
+        return findDocument(id)
+                .flatMap(handler)
+                .switchIfEmpty(Mono.fromSupplier(() -> error(HttpStatus.NOT_FOUND, "Document not found", exchange)));
+    }
+
+    /*
+     * Without tiering all documents are in memory and the lookup stays on the event loop.
+     */
+    private Mono<PlainTextDocument> findDocument(long id) {
+        return tiering ? blocking(() -> storage.getDocument(id)) : Mono.justOrEmpty(storage.getDocument(id));
+    }
+
+    /*
+     * Runs a storage call that may wait for the disk off the event loop. A null result completes empty.
+     */
+    private static <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.elastic());
+    }
+
+    private static ResponseEntity<Object> changesAfter(PlainTextDocument document, int fromVersion) {
+        DocumentSnapshot snapshot = document.getSnapshot();
+        try {
+            return ResponseEntity.ok(snapshot.getChanges(fromVersion));
+        } catch (VersionNotRetainedException e) {
+            return ResponseEntity.ok(snapshot.createResync());
+        }
+    }
+
+    /*
+     * Completes when the document version gets greater than `fromVersion`, the waiter is dropped on cancel.
+     */
+    private static Mono<Integer> awaitVersion(PlainTextDocument document, int fromVersion) {
+        return Mono.defer(() -> {
+            CompletableFuture<Integer> version = document.awaitVersion(fromVersion);
+            return Mono.fromFuture(version).doOnCancel(() -> version.cancel(false));
+        });
+    }
+
+    /*
+     * The session has the document at `version`, see RetentionPolicy.
+     */
+    private Mono<Void> acknowledge(PlainTextDocument document, int version, ServerWebExchange exchange) {
+        if (!retentionPolicy.tracksSessions()) {
+            return Mono.empty();
+        }
+        return getSession(exchange)
+                .doOnNext(session -> document.acknowledge(session.getId(), version))
+                .then();
+    }
+
+    /*
+     * The session is started, so it is kept for the next requests of the client.
+     */
+    private static Mono<WebSession> getSession(ServerWebExchange exchange) {
+        return exchange.getSession().doOnNext(WebSession::start);
+    }
+
+    private static ResponseEntity<Object> readOnly(ServerWebExchange exchange) {
+        return error(HttpStatus.FORBIDDEN, "Documents are read-only replicas", exchange);
+    }
+
+    private static ResponseEntity<Object> error(HttpStatus status, String message, ServerWebExchange exchange) {
+        return ResponseEntity.status(status).body(apiError(status, message, exchange));
+    }
+
+    private static ApiError apiError(HttpStatus status, String message, ServerWebExchange exchange) {
+        return new ApiError(status, message, exchange.getRequest().getPath().pathWithinApplication().value());
+    }
+
+}
@@ -0,0 +1,71 @@
+package service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import model.Change;
+import model.Resync;
+
+import java.util.List;
+
+/*
+ * Message of the document WebSocket channel.
+ *
+ * changes - new changes of the document, each change id is its version
+ * resync  - the session fell behind, local text has to be replaced with the resync
+ * ack     - the edit of this session is processed, the document version after it is `version`,
+ *           the changes up to `version` are sent before
+ * error   - the edit of this session is rejected
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SocketMessage {
+
+    private final String type;
+    private final List<Change> changes;
+    private final Resync resync;
+    private final Integer version;
+    private final String message;
+
+    private SocketMessage(String type, List<Change> changes, Resync resync, Integer version, String message) {
+        this.type = type;
+        this.changes = changes;
+        this.resync = resync;
+        this.version = version;
+        this.message = message;
+    }
+
+    static SocketMessage changes(List<Change> changes) {
+        return new SocketMessage("changes", changes, null, null, null);
+    }
+
+    static SocketMessage resync(Resync resync) {
+        return new SocketMessage("resync", null, resync, null, null);
+    }
+
+    static SocketMessage ack(int version) {
+        return new SocketMessage("ack", null, null, version, null);
+    }
+
+    static SocketMessage error(String message) {
+        return new SocketMessage("error", null, null, null, message);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public Resync getResync() {
+        return resync;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+}
@@ -0,0 +1,106 @@
+package service;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Outgoing queue of one WebSocket session.
+ *
+ * Frames are encoded once per document and shared by all subscribers, each frame is sent as a binary message
+ * with UTF-8 JSON. Sending is done by a task in the executor, so a slow session never blocks the broadcast.
+ * If the session falls behind by more than `bufferSizeLimit` bytes, the queued frames are dropped
+ * and the session gets one resync instead.
+ */
+class SocketSubscriber {
+
+    private final WebSocketSession session;
+    private final DocumentChannel channel;
+    private final Executor executor;
+    private final int bufferSizeLimit;
+
+    private final Queue<byte[]> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private volatile boolean resyncRequired = false;
+
+    SocketSubscriber(WebSocketSession session, DocumentChannel channel, Executor executor, int bufferSizeLimit) {
+        this.session = session;
+        this.channel = channel;
+        this.executor = executor;
+        this.bufferSizeLimit = bufferSizeLimit;
+    }
+
+    void send(byte[] frame) {
+        if (resyncRequired) {
+            return;
+        }
+        if (bufferSize.addAndGet(frame.length) > bufferSizeLimit) {
+            bufferSize.addAndGet(-frame.length);
+            requireResync();
+            return;
+        }
+        frames.add(frame);
+        scheduleFlush();
+    }
+
+    /*
+     * Drops the queued frames, the session gets one resync instead.
+     * A frame is uncounted by the thread that polls it, so the flush and the drop never uncount it twice.
+     */
+    void requireResync() {
+        resyncRequired = true;
+        byte[] frame;
+        while ((frame = frames.poll()) != null) {
+            bufferSize.addAndGet(-frame.length);
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushing.compareAndSet(false, true)) {
+            executor.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        try {
+            while (session.isOpen()) {
+                byte[] frame;
+                if (resyncRequired) {
+                    resyncRequired = false;
+                    frame = channel.encodeResync();
+                } else {
+                    frame = frames.poll();
+                    if (frame == null) {
+                        break;
+                    }
+                    bufferSize.addAndGet(-frame.length);
+                }
+                session.sendMessage(new BinaryMessage(frame));
+            }
+        } catch (IOException | RuntimeException e) {
+            closeQuietly();
+        } finally {
+            flushing.set(false);
+        }
+        if (session.isOpen() && (resyncRequired || !frames.isEmpty())) {
+            scheduleFlush();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            session.close(CloseStatus.SERVER_ERROR);
+        } catch (IOException ignored) {
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package service;
+
+import model.TextRange;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Writes a range of the document text straight from the text buffer to the response body, see TextRange.
+ * The length in bytes is not known before the text is encoded, so the response is chunked.
+ */
+public class TextRangeHttpMessageConverter extends AbstractHttpMessageConverter<TextRange> {
+
+    public TextRangeHttpMessageConverter() {
+        super(new MediaType("text", "plain", StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return TextRange.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected TextRange readInternal(Class<? extends TextRange> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Text ranges are write only", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(TextRange range, HttpOutputMessage outputMessage) throws IOException {
+        range.writeTo(outputMessage.getBody());
+    }
+
+}
@@ -0,0 +1,52 @@
+package service;
+
+import model.TextRange;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.HttpMessageWriter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The reactive counterpart of TextRangeHttpMessageConverter.
+ * The range is encoded in parts of PART_LENGTH symbols as the response requests them,
+ * so a slow client holds at most a few parts of the text in buffers.
+ */
+public class TextRangeHttpMessageWriter implements HttpMessageWriter<TextRange> {
+
+    private static final int PART_LENGTH = 8192;
+    private static final MediaType MEDIA_TYPE = new MediaType("text", "plain", StandardCharsets.UTF_8);
+
+    @Override
+    public List<MediaType> getWritableMediaTypes() {
+        return Collections.singletonList(MEDIA_TYPE);
+    }
+
+    @Override
+    public boolean canWrite(ResolvableType elementType, MediaType mediaType) {
+        return TextRange.class.isAssignableFrom(elementType.toClass())
+                && (mediaType == null || mediaType.isCompatibleWith(MEDIA_TYPE));
+    }
+
+    @Override
+    public Mono<Void> write(
+            Publisher<? extends TextRange> inputStream,
+            ResolvableType elementType,
+            MediaType mediaType,
+            ReactiveHttpOutputMessage message,
+            Map<String, Object> hints
+    ) {
+        message.getHeaders().setContentType(MEDIA_TYPE);
+        return message.writeWith(Flux.from(inputStream)
+                .concatMapIterable(range -> range.split(PART_LENGTH), 1)
+                .map(part -> message.bufferFactory().wrap(part.getBytes(StandardCharsets.UTF_8))));
+    }
+
+}
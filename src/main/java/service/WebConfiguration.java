@@ -0,0 +1,21 @@
+package service;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+@Profile("!reactive")
+public class WebConfiguration implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new EncodedChangesHttpMessageConverter());
+        converters.add(0, new TextRangeHttpMessageConverter());
+        converters.add(new BinaryHttpMessageConverter());
+    }
+
+}
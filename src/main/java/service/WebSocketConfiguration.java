@@ -0,0 +1,25 @@
+package service;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@Profile("!reactive")
+@EnableWebSocket
+public class WebSocketConfiguration implements WebSocketConfigurer {
+
+    private final DocumentSocketHandler documentSocketHandler;
+
+    public WebSocketConfiguration(DocumentSocketHandler documentSocketHandler) {
+        this.documentSocketHandler = documentSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(documentSocketHandler, "/documents/*/socket");
+    }
+
+}
@@ -0,0 +1,81 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChangeLogTest {
+
+    @Test
+    public void testAppend() {
+        ChangeLog changeLog = ChangeLog.create(0)
+                .append(new ChangeImpl(0, Operation.INSERT, "Hello", 1), 5)
+                .append(new ChangeImpl(1, Operation.DELETE, "el", 2), 3);
+        assertEquals(2, changeLog.getVersion());
+        assertEquals(3, changeLog.getLength(2));
+
+        Change change = changeLog.get(2);
+        assertEquals(2, change.getId());
+        assertEquals(1, change.getStartPosition());
+        assertEquals(Operation.DELETE, change.getOperation());
+        assertEquals("el", change.getText());
+        assertEquals(2, change.getSymbolsCount());
+        assertEquals(2, change.getUserId());
+    }
+
+    /*
+     * A small log takes small chunks, the random test below reads the views across their growth.
+     */
+    @Test
+    public void testSmallLogSize() {
+        ChangeLog changeLog = ChangeLog.create(0);
+        for (int i = 0; i < 2; i++) {
+            changeLog = changeLog.append(new ChangeImpl(i, Operation.INSERT, "a", 1), i + 1);
+        }
+        assertTrue(changeLog.getRetainedSize() < 2048);
+    }
+
+    @Test
+    public void testAppendRandom() {
+        Random random = new Random(1);
+        List<ChangeImpl> changes = new ArrayList<>();
+        List<ChangeLog> views = new ArrayList<>();
+        ChangeLog changeLog = ChangeLog.create(0);
+        for (int i = 0; i < 5000; i++) {
+            int length = random.nextInt(20) == 0 ? random.nextInt(100000) : random.nextInt(10);
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            Operation operation = random.nextBoolean() ? Operation.INSERT : Operation.DELETE;
+            ChangeImpl change = new ChangeImpl(random.nextInt(1000), operation, text.toString(), random.nextLong());
+            changes.add(change);
+            changeLog = changeLog.append(change, i);
+            if (random.nextInt(10) == 0) {
+                changeLog = changeLog.compact(changeLog.getVersion() - random.nextInt(changeLog.size() + 1));
+            }
+            if (i % 1000 == 0) {
+                views.add(changeLog);
+            }
+        }
+        views.add(changeLog);
+
+        for (ChangeLog view : views) {
+            List<Change> viewChanges = view.getChanges(view.getBaseVersion());
+            assertEquals(view.size(), viewChanges.size());
+            for (Change change : viewChanges) {
+                ChangeImpl expected = changes.get((int) change.getId() - 1);
+                assertEquals(expected.getStartPosition(), change.getStartPosition());
+                assertEquals(expected.getOperation(), change.getOperation());
+                assertEquals(expected.getText(), change.getText());
+                assertEquals(expected.getUserId(), change.getUserId());
+                assertEquals((int) change.getId() - 1, view.getLength((int) change.getId()));
+            }
+        }
+    }
+
+}
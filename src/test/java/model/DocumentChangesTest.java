@@ -1,8 +1,16 @@
 package model;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -58,4 +66,254 @@ public class DocumentChangesTest {
         assertEquals(16, document.getLength(3));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGetLength2() {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document");
+        for (int i = 0; i < 100; i++) {
+            document.addChange(new ChangeImpl(0, Operation.INSERT, "ab", 0));
+            document.addChange(new ChangeImpl(0, Operation.DELETE, "a", 0));
+        }
+        assertEquals(200, document.getVersion());
+        assertEquals(100, document.getText().length());
+        assertEquals(2, document.getLength(1));
+        assertEquals(52, document.getLength(101));
+        assertEquals(100, document.getLength(200));
+    }
+
+    @Test
+    public void testCompaction1() {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document", new RetentionPolicy(8, 0));
+        for (int i = 0; i < 100; i++) {
+            document.addChange(new ChangeImpl(i, Operation.INSERT, "a", 0));
+        }
+        assertEquals(100, document.getVersion());
+        assertTrue(document.getBaseVersion() >= 100 - 9);
+        assertEquals(document.getVersion() - document.getBaseVersion(),
+                document.getChanges(document.getBaseVersion()).size());
+        assertEquals(document.getBaseVersion(), document.getLength(document.getBaseVersion()));
+        try {
+            document.getLength(50);
+            fail();
+        } catch (VersionNotRetainedException e) {
+            assertEquals(
+                    "Version 50 is older than the retained change log, which starts at " + document.getBaseVersion(),
+                    e.getMessage()
+            );
+        }
+    }
+
+    @Test(expected = VersionNotRetainedException.class)
+    public void testCompaction2() {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document", new RetentionPolicy(0, 10));
+        for (int i = 0; i < 10; i++) {
+            document.addChange(new ChangeImpl(0, Operation.INSERT, "Hello", 0));
+        }
+        document.getChanges(1);
+    }
+
+    @Test
+    public void testSessionCompaction() throws Exception {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document", new RetentionPolicy(0, 0, 200));
+        for (int i = 0; i < 40; i++) {
+            document.addChange(new ChangeImpl(i, Operation.INSERT, "a", 0));
+        }
+        assertEquals(0, document.getBaseVersion());
+
+        Thread.sleep(250);
+        document.acknowledge("first", 10);
+        document.acknowledge("second", 30);
+        for (int i = 40; i < 80; i++) {
+            document.addChange(new ChangeImpl(i, Operation.INSERT, "a", 0));
+        }
+        assertEquals(10, document.getBaseVersion());
+        assertEquals(70, document.getChanges(10).size());
+
+        document.removeSession("first");
+        for (int i = 80; i < 120; i++) {
+            document.addChange(new ChangeImpl(i, Operation.INSERT, "a", 0));
+        }
+        assertEquals(30, document.getBaseVersion());
+        assertEquals(1, document.getSessionCount());
+
+        Thread.sleep(250);
+        for (int i = 120; i < 160; i++) {
+            document.addChange(new ChangeImpl(i, Operation.INSERT, "a", 0));
+        }
+        assertTrue(document.getBaseVersion() > 120);
+        assertEquals(0, document.getSessionCount());
+        assertEquals(160, document.getText().length());
+    }
+
+    @Test
+    public void testSessionCompactionDisabled() {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document");
+        document.acknowledge("first", 0);
+        for (int i = 0; i < 100; i++) {
+            document.addChange(new ChangeImpl(i, Operation.INSERT, "a", 0));
+        }
+        assertEquals(0, document.getBaseVersion());
+        assertEquals(0, document.getSessionCount());
+    }
+
+    @Test
+    public void testResync() {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document", new RetentionPolicy(2, 0));
+        document.addChangesMany(Arrays.asList(
+                new ChangeImpl(0, Operation.INSERT, "Hello, world!", 0),
+                new ChangeImpl("Hello, ".length(), Operation.DELETE, "world", 0),
+                new ChangeImpl("Hello, ".length(), Operation.INSERT, "universe", 0),
+                new ChangeImpl("Hello".length(), Operation.DELETE, ",", 0)
+        ));
+        Resync resync = document.createResync();
+        assertEquals(2, resync.getVersion());
+        assertEquals("Hello, !", resync.getText());
+        assertEquals(2, resync.getChanges().size());
+        assertEquals("Hello universe!", document.getText());
+    }
+
+    @Test
+    public void testSnapshot() {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document", new RetentionPolicy(100, 0));
+        document.addChange(new ChangeImpl(0, Operation.INSERT, "Hello", 0));
+        DocumentSnapshot snapshot = document.getSnapshot();
+        for (int i = 0; i < 3000; i++) {
+            document.addChange(new ChangeImpl(i % 5, Operation.INSERT, "a", 0));
+        }
+        assertEquals(1, snapshot.getVersion());
+        assertEquals("Hello", snapshot.getText());
+        assertEquals(1, snapshot.getChanges(0).size());
+
+        DocumentSnapshot currentSnapshot = document.getSnapshot();
+        assertEquals(3001, currentSnapshot.getVersion());
+        assertEquals(3005, currentSnapshot.getText().length());
+        assertEquals(3005, currentSnapshot.getLength(3001));
+        assertEquals(2905, currentSnapshot.getLength(2901));
+        assertTrue(currentSnapshot.getChangeLog().getFirstLengthVersion() > 1996);
+        assertEquals(100, currentSnapshot.getChanges(2901).size());
+        assertEquals(2902, currentSnapshot.getChanges(2901).get(0).getId());
+        assertEquals(currentSnapshot.getText(), applyResync(currentSnapshot.createResync()));
+    }
+
+    @Test
+    public void testEncodedChanges() throws Exception {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document", new RetentionPolicy(3, 0));
+        document.addChange(new ChangeImpl(0, Operation.INSERT, "Hello, \"world\"!\n", 7));
+        document.addChange(new ChangeImpl(0, Operation.INSERT, "\u0001\\\t\u00e9\u4e16\ud83d\ude00", -7));
+        document.addChange(new ChangeImpl(1, Operation.DELETE, "\\", 7));
+        for (int i = 0; i < 5; i++) {
+            document.addChange(new ChangeImpl(0, Operation.INSERT, "a", 0));
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        DocumentSnapshot snapshot = document.getSnapshot();
+        for (int version = snapshot.getBaseVersion(); version <= snapshot.getVersion(); version++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            EncodedChanges changes = snapshot.getEncodedChanges(version);
+            changes.writeTo(out);
+            assertEquals(
+                    objectMapper.readTree(objectMapper.writeValueAsString(snapshot.getChanges(version))),
+                    objectMapper.readTree(out.toByteArray())
+            );
+            assertEquals(out.size(), changes.getContentLength());
+        }
+
+        document = new PlainTextDocument(0, "Test Document");
+        document.addChange(new ChangeImpl(0, Operation.INSERT, "\"\u0002\u00e9", 0));
+        document.addChange(new ChangeImpl(0, Operation.DELETE, "\"", 0));
+        assertEquals(
+                objectMapper.readTree(objectMapper.writeValueAsString(document.getChanges(0))),
+                objectMapper.readTree(encode(document.getSnapshot().getEncodedChanges(0)))
+        );
+    }
+
+    /*
+     * Users take turns typing runs at random positions, so runs of each user are merged. The changes after any retained version,
+     * also inside a merged change, lead from the text of that version to the text of the later one.
+     */
+    @Test
+    public void testCoalescing() throws Exception {
+        PlainTextDocument document = new PlainTextDocument(
+                0, "Test Document", new RetentionPolicy(200, 0), new CoalescingPolicy(60000, 16)
+        );
+        Random random = new Random(3);
+        List<String> texts = new ArrayList<>();
+        texts.add("");
+        int[] cursors = new int[3];
+        int user = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (random.nextInt(6) == 0) {
+                user = random.nextInt(3);
+            }
+            String text = document.getText();
+            if (random.nextInt(8) == 0) {
+                cursors[user] = random.nextInt(text.length() + 1);
+            }
+            cursors[user] = Math.min(cursors[user], text.length());
+            if (random.nextInt(10) == 0 && cursors[user] > 0) {
+                cursors[user]--;
+                String symbol = text.substring(cursors[user], cursors[user] + 1);
+                document.addChange(new ChangeImpl(cursors[user], Operation.DELETE, symbol, user));
+            } else {
+                String symbols = random.nextInt(10) == 0 ? "ab" : String.valueOf((char) ('a' + random.nextInt(26)));
+                document.addChange(new ChangeImpl(cursors[user], Operation.INSERT, symbols, user));
+                cursors[user] += symbols.length();
+            }
+            texts.add(document.getText());
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        DocumentSnapshot snapshot = document.getSnapshot();
+        assertTrue(snapshot.getChanges(snapshot.getBaseVersion()).size() * 2 < snapshot.getChangeLog().size());
+        for (int version = snapshot.getBaseVersion(); version <= snapshot.getVersion(); version++) {
+            List<Change> changes = snapshot.getChanges(version);
+            assertEquals(snapshot.getText(), apply(texts.get(version), changes));
+            if (!changes.isEmpty()) {
+                assertEquals(snapshot.getVersion(), changes.get(changes.size() - 1).getId());
+            }
+            EncodedChanges encodedChanges = snapshot.getEncodedChanges(version);
+            String encoded = encode(encodedChanges);
+            assertEquals(objectMapper.readTree(objectMapper.writeValueAsString(changes)), objectMapper.readTree(encoded));
+            assertEquals(encoded.getBytes(StandardCharsets.UTF_8).length, encodedChanges.getContentLength());
+            int toVersion = version + random.nextInt(snapshot.getVersion() - version + 1);
+            assertEquals(texts.get(toVersion), apply(texts.get(version), snapshot.getChanges(version, toVersion)));
+            assertEquals(texts.get(toVersion), apply(
+                    texts.get(version), snapshot.getVersionChanges(version).subList(0, toVersion - version)
+            ));
+        }
+        assertEquals(snapshot.getText(), applyResync(snapshot.createResync()));
+    }
+
+    @Test
+    public void testAwaitVersion() throws Exception {
+        PlainTextDocument document = new PlainTextDocument(0, "Test Document");
+        document.addChange(new ChangeImpl(0, Operation.INSERT, "Hello", 0));
+        assertTrue(document.awaitVersion(0).isDone());
+
+        CompletableFuture<Integer> version = document.awaitVersion(1);
+        assertFalse(version.isDone());
+        document.addChange(new ChangeImpl(5, Operation.INSERT, "!", 0));
+        assertEquals(2, (int) version.get(1, TimeUnit.SECONDS));
+    }
+
+    private static String encode(EncodedChanges changes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        changes.writeTo(out);
+        return out.toString("UTF-8");
+    }
+
+    private static String apply(String text, List<Change> changes) {
+        TextBuffer buffer = Rope.of(text);
+        for (Change change : changes) {
+            buffer = PlainTextDocument.apply(buffer, change);
+        }
+        return buffer.toString();
+    }
+
+    private static String applyResync(Resync resync) {
+        TextBuffer text = Rope.of(resync.getText());
+        for (Change change : resync.getChanges()) {
+            text = PlainTextDocument.apply(text, change);
+        }
+        return text.toString();
+    }
+
+}
@@ -1,11 +1,22 @@
 package model;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class ProcessorTest {
 
@@ -140,4 +151,357 @@ public class ProcessorTest {
         assertEquals("!", document.getText());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testDelete7() throws EditValidationException {
+        processor.processEdit(document, EditImpl.constructDelete(1, "Hello, world".length(), "!".length()), 0);
+        assertEquals("Hello, universe", document.getText());
+    }
+
+    @Test
+    public void testBatch1() throws EditValidationException {
+        processor.processEdits(document, Arrays.asList(
+                EditImpl.constructInsert(1, "Hello, ".length(), "dear "),
+                EditImpl.constructDelete(1, "Hello, dear ".length(), "world".length()),
+                EditImpl.constructInsert(1, "Hello, dear ".length(), "friend")
+        ), 0);
+        assertEquals("Hello, universedear friend!", document.getText());
+    }
+
+    @Test
+    public void testBatch2() throws EditValidationException {
+        processor.processEdits(document, Arrays.asList(
+                EditImpl.constructDelete(1, 0, "Hello".length()),
+                EditImpl.constructInsert(1, 0, "Hi"),
+                EditImpl.constructInsert(1, "Hi, world".length(), "!!")
+        ), 0);
+        assertEquals("Hi, universe!!!", document.getText());
+    }
+
+    @Test
+    public void testBatch3() throws EditValidationException {
+        List<Change> changes = processor.processEdits(document, Arrays.asList(
+                EditImpl.constructInsert(3, "Hello, universe".length(), "s"),
+                EditImpl.constructInsert(3, "Hello, universes!".length(), "!")
+        ), 0);
+        assertEquals("Hello, universes!!", document.getText());
+        assertEquals(2, changes.size());
+        assertEquals(5, document.getVersion());
+    }
+
+    @Test(expected = EditValidationException.class)
+    public void testBatch4() throws EditValidationException {
+        processor.processEdits(document, Arrays.asList(
+                EditImpl.constructInsert(3, 0, "a"),
+                EditImpl.constructInsert(2, 0, "b")
+        ), 0);
+    }
+
+    /*
+     * Concurrent typists in the sequencer mode: every keystroke gets its own version and is kept in the text.
+     */
+    @Test
+    public void testSequencer() throws Exception {
+        ExecutorService users = Executors.newFixedThreadPool(8);
+        Processor processor = new Processor(true, Executors.newSingleThreadExecutor());
+        for (int user = 0; user < 8; user++) {
+            char symbol = (char) ('a' + user);
+            users.execute(() -> {
+                for (int i = 0; i < 200; i++) {
+                    try {
+                        int version = document.getVersion();
+                        processor.processEdit(document, EditImpl.constructInsert(version, 0, String.valueOf(symbol)), symbol);
+                    } catch (EditValidationException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+        users.shutdown();
+        assertTrue(users.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(3 + 8 * 200, document.getVersion());
+        assertEquals("Hello, universe!".length() + 8 * 200, document.getText().length());
+    }
+
+    @Test(expected = EditValidationException.class)
+    public void testSequencerValidation() throws EditValidationException {
+        Processor processor = new Processor(true, Executors.newSingleThreadExecutor());
+        processor.processEdit(document, EditImpl.constructDelete(3, 0, 100), 0);
+    }
+
+    /*
+     * The drain is held back, so the edits stay queued until the queue is full.
+     */
+    @Test
+    public void testQueueLimit() throws Exception {
+        List<Runnable> drains = new ArrayList<>();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        Processor processor = new Processor(true, 64, drains::add, 2, registry);
+        CompletableFuture<List<Change>> first = processor.submitEdits(
+                document, Collections.singletonList(EditImpl.constructInsert(3, 0, "a")), 0
+        );
+        CompletableFuture<List<Change>> second = processor.submitEdits(
+                document, Collections.singletonList(EditImpl.constructInsert(3, 0, "b")), 0
+        );
+        CompletableFuture<List<Change>> third = processor.submitEdits(
+                document, Collections.singletonList(EditImpl.constructInsert(3, 0, "c")), 0
+        );
+        assertTrue(third.isCompletedExceptionally());
+        assertEquals(1, registry.get("processor.edit.rejected").counter().count(), 0);
+
+        assertEquals(1, drains.size());
+        drains.get(0).run();
+        assertEquals(2, first.get().size());
+        assertEquals(2, second.get().size());
+        assertEquals(5, document.getVersion());
+        assertFalse(processor.submitEdits(
+                document, Collections.singletonList(EditImpl.constructInsert(5, 0, "c")), 0
+        ).isCompletedExceptionally());
+    }
+
+    /*
+     * Deletion of "o, !" from version 2 is splitted by the insertion of "universe".
+     */
+    @Test
+    public void testMetrics() throws EditValidationException {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        Processor processor = new Processor(false, 64, Runnable::run, registry);
+        processor.processEdit(document, EditImpl.constructDelete(2, 4, 4), 0);
+        assertEquals("Helluniverse", document.getText());
+        for (String phase : Arrays.asList("validation", "monitor-wait", "transform", "apply")) {
+            assertEquals(1, registry.get("processor.edit").tag("phase", phase).timer().count());
+        }
+        assertEquals(1, registry.get("processor.edit.backlog").summary().totalAmount(), 0);
+        assertEquals(2, registry.get("processor.edit.delete.splits").summary().max(), 0);
+    }
+
+    @Test
+    public void testStorageMetrics() throws IOException {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        HashMapStorage storage = new HashMapStorage(
+                RetentionPolicy.UNLIMITED, new WriteAheadLog("", "durable", 0), CheckpointStore.DISABLED, 0, registry
+        );
+        PlainTextDocument document = storage.createDocument("Test Document");
+        document.addChangesMany(Collections.singletonList(new ChangeImpl(0, Operation.INSERT, "Hello", 0)));
+        String id = Long.toString(document.getId());
+        assertEquals(1, registry.get("storage.documents").gauge().value(), 0);
+        assertEquals(1, registry.get("storage.document.changes").tag("document", id).gauge().value(), 0);
+        assertEquals(5, registry.get("storage.document.text.length").tag("document", id).gauge().value(), 0);
+        assertTrue(registry.get("storage.document.change-log.bytes").tag("document", id).gauge().value() > 0);
+
+        storage.removeDocument(document.getId());
+        assertEquals(0, registry.get("storage.documents").gauge().value(), 0);
+        assertNull(registry.find("storage.document.changes").tag("document", id).gauge());
+    }
+
+    /*
+     * Several users edit the same version concurrently with batches of random edits.
+     * Every symbol is unique, so the merge result can be checked against the local text of each user:
+     * a symbol deleted by anyone is deleted, all other symbols are kept in the order the users saw them.
+     */
+    @Test
+    public void testBatchRandom() throws EditValidationException {
+        Random random = new Random(7);
+        for (int iteration = 0; iteration < 300; iteration++) {
+            char[] nextSymbol = {'\u0100'};
+            PlainTextDocument document = new HashMapStorage().createDocument("Test Document");
+            processor.processEdit(document, EditImpl.constructInsert(0, 0, randomText(random, nextSymbol, 20)), 0);
+            String initialText = document.getText();
+
+            List<String> localTexts = new ArrayList<>();
+            for (int user = 0; user < 3; user++) {
+                StringBuilder localText = new StringBuilder(initialText);
+                List<Edit> edits = new ArrayList<>();
+                for (int i = 0; i < 1 + random.nextInt(6); i++) {
+                    int position = random.nextInt(localText.length() + 1);
+                    if (localText.length() > 0 && position < localText.length() && random.nextBoolean()) {
+                        int count = 1 + random.nextInt(Math.min(5, localText.length() - position));
+                        edits.add(EditImpl.constructDelete(1, position, count));
+                        localText.delete(position, position + count);
+                    } else {
+                        String symbols = randomText(random, nextSymbol, 4);
+                        edits.add(EditImpl.constructInsert(1, position, symbols));
+                        localText.insert(position, symbols);
+                    }
+                }
+                processor.processEdits(document, edits, user);
+                localTexts.add(localText.toString());
+            }
+
+            String text = document.getText();
+            for (char symbol : initialText.toCharArray()) {
+                boolean deleted = localTexts.stream().anyMatch(localText -> localText.indexOf(symbol) < 0);
+                assertEquals(text, !deleted, text.indexOf(symbol) >= 0);
+            }
+            for (String localText : localTexts) {
+                assertEquals(retain(localText, text), retain(text, localText));
+            }
+        }
+    }
+
+    @Test
+    public void testTransformCacheRandom() throws EditValidationException {
+        Processor cachedProcessor = new Processor(false, 1, Runnable::run);
+        Processor walkingProcessor = new Processor(false, 0, Runnable::run);
+        Random random = new Random(11);
+        for (int iteration = 0; iteration < 50; iteration++) {
+            PlainTextDocument document = new HashMapStorage().createDocument("Test Document");
+            walkingProcessor.processEdit(document, EditImpl.constructInsert(0, 0, "Hello, world!"), 0);
+            for (int i = 0; i < 40; i++) {
+                walkingProcessor.processEdit(document, randomEdit(random, document), random.nextInt(3));
+            }
+            for (int i = 0; i < 20; i++) {
+                Edit edit = randomEdit(random, document);
+                PlainTextDocument cachedDocument = copy(document);
+                PlainTextDocument walkedDocument = copy(document);
+                cachedDocument.getTransformCache().admit(edit.getFromVersion());
+                cachedProcessor.processEdit(cachedDocument, copy(edit), 3);
+                walkingProcessor.processEdit(walkedDocument, copy(edit), 3);
+                assertEquals(walkedDocument.getText(), cachedDocument.getText());
+            }
+        }
+    }
+
+    /*
+     * A transform is built only for a version requested the second time.
+     */
+    @Test
+    public void testTransformCacheAdmission() {
+        TransformCache cache = new TransformCache();
+        DocumentSnapshot snapshot = document.getSnapshot();
+        assertNull(cache.get(snapshot, 1));
+        ComposedTransform transform = cache.get(snapshot, 1);
+        assertNotNull(transform);
+        assertEquals(snapshot.getVersion(), transform.getVersion());
+    }
+
+    /*
+     * Edits from an old version against a long backlog, the transform holds thousands of segments.
+     */
+    @Test
+    public void testTransformCacheLongBacklog() throws EditValidationException {
+        Processor cachedProcessor = new Processor(false, 1, Runnable::run);
+        Processor walkingProcessor = new Processor(false, 0, Runnable::run);
+        Random random = new Random(17);
+        PlainTextDocument document = new HashMapStorage().createDocument("Test Document");
+        walkingProcessor.processEdit(document, EditImpl.constructInsert(0, 0, "Hello, world!"), 0);
+        for (int i = 0; i < 3000; i++) {
+            int length = document.getLength(document.getVersion());
+            int position = random.nextInt(length + 1);
+            int version = document.getVersion();
+            Edit edit = position < length && random.nextInt(3) == 0
+                    ? EditImpl.constructDelete(version, position, 1 + random.nextInt(Math.min(4, length - position)))
+                    : EditImpl.constructInsert(version, position, "xyz".substring(random.nextInt(3)));
+            walkingProcessor.processEdit(document, edit, random.nextInt(3));
+        }
+        PlainTextDocument cachedDocument = copy(document);
+        PlainTextDocument walkedDocument = copy(document);
+        for (int i = 0; i < 100; i++) {
+            int length = walkedDocument.getLength(1);
+            int position = random.nextInt(length + 1);
+            Edit edit = position < length && random.nextBoolean()
+                    ? EditImpl.constructDelete(1, position, 1 + random.nextInt(Math.min(8, length - position)))
+                    : EditImpl.constructInsert(1, position, String.valueOf(i % 10));
+            cachedProcessor.processEdit(cachedDocument, copy(edit), 3);
+            walkingProcessor.processEdit(walkedDocument, copy(edit), 3);
+            assertEquals(walkedDocument.getText(), cachedDocument.getText());
+        }
+    }
+
+    @Test
+    public void testTransformCacheExtension() throws EditValidationException {
+        Processor cachedProcessor = new Processor(false, 1, Runnable::run);
+        Processor walkingProcessor = new Processor(false, 0, Runnable::run);
+        Random random = new Random(13);
+        PlainTextDocument cachedDocument = copy(document);
+        PlainTextDocument walkedDocument = copy(document);
+        for (int i = 0; i < 200; i++) {
+            int fromVersion = 1 + random.nextInt(3);
+            Edit edit = EditImpl.constructInsert(
+                    fromVersion, random.nextInt(walkedDocument.getLength(fromVersion) + 1), String.valueOf(i % 10)
+            );
+            cachedProcessor.processEdit(cachedDocument, copy(edit), 0);
+            walkingProcessor.processEdit(walkedDocument, copy(edit), 0);
+            assertEquals(walkedDocument.getText(), cachedDocument.getText());
+        }
+    }
+
+    /*
+     * Users type at their cursors and make stale edits in between. Edits transformed against merged changes
+     * give the same text as against the changes one by one.
+     */
+    @Test
+    public void testCoalescingRandom() throws EditValidationException {
+        Random random = new Random(17);
+        PlainTextDocument document = new PlainTextDocument(1, "Test Document");
+        PlainTextDocument coalescedDocument = new PlainTextDocument(
+                1, "Test Document", RetentionPolicy.UNLIMITED, new CoalescingPolicy(60000, 16)
+        );
+        int[] cursors = new int[3];
+        int user = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (random.nextInt(6) == 0) {
+                user = random.nextInt(3);
+            }
+            Edit edit;
+            if (document.getVersion() > 0 && random.nextInt(5) == 0) {
+                edit = randomEdit(random, document);
+            } else {
+                cursors[user] = Math.min(cursors[user], document.getText().length());
+                String symbol = String.valueOf((char) ('a' + user));
+                edit = EditImpl.constructInsert(document.getVersion(), cursors[user]++, symbol);
+            }
+            processor.processEdit(document, copy(edit), user);
+            processor.processEdit(coalescedDocument, copy(edit), user);
+            assertEquals(document.getText(), coalescedDocument.getText());
+        }
+        assertTrue(coalescedDocument.getChanges(0).size() * 2 < document.getChanges(0).size());
+    }
+
+    private static Edit randomEdit(Random random, PlainTextDocument document) {
+        int fromVersion = Math.max(1, document.getVersion() - random.nextInt(20));
+        int length = document.getLength(fromVersion);
+        int position = random.nextInt(length + 1);
+        if (position < length && random.nextBoolean()) {
+            return EditImpl.constructDelete(fromVersion, position, 1 + random.nextInt(Math.min(8, length - position)));
+        }
+        return EditImpl.constructInsert(fromVersion, position, "ab".substring(random.nextInt(2)));
+    }
+
+    private static Edit copy(Edit edit) {
+        if (edit.getOperation() == Operation.INSERT) {
+            return EditImpl.constructInsert(edit.getFromVersion(), edit.getStartPosition(), edit.getSymbols());
+        }
+        return EditImpl.constructDelete(edit.getFromVersion(), edit.getStartPosition(), edit.getSymbolsCount());
+    }
+
+    private static PlainTextDocument copy(PlainTextDocument document) {
+        PlainTextDocument copy = new PlainTextDocument(document.getId(), document.getName());
+        List<ChangeImpl> changes = new ArrayList<>();
+        for (Change change : document.getChanges(0)) {
+            changes.add(new ChangeImpl(
+                    change.getStartPosition(), change.getOperation(), change.getText(), change.getUserId()
+            ));
+        }
+        copy.addChangesMany(changes);
+        return copy;
+    }
+
+    private static String randomText(Random random, char[] nextSymbol, int maxLength) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i <= random.nextInt(maxLength); i++) {
+            builder.append(nextSymbol[0]++);
+        }
+        return builder.toString();
+    }
+
+    private static String retain(String text, String symbols) {
+        StringBuilder builder = new StringBuilder();
+        for (char symbol : text.toCharArray()) {
+            if (symbols.indexOf(symbol) >= 0) {
+                builder.append(symbol);
+            }
+        }
+        return builder.toString();
+    }
+
+}
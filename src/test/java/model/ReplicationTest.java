@@ -0,0 +1,167 @@
+package model;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplicationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Processor processor = new Processor();
+    private final LoopbackTransport transport = new LoopbackTransport();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @After
+    public void tearDown() throws Exception {
+        transport.destroy();
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        HashMapStorage leader = new HashMapStorage();
+        HashMapStorage follower = new HashMapStorage(new RetentionPolicy(10, 0));
+        Replication leaderReplication = new Replication(leader, transport, new SimpleMeterRegistry(), "leader");
+        leaderReplication.afterPropertiesSet();
+        Replication followerReplication = new Replication(follower, transport, meterRegistry, "follower");
+        followerReplication.afterPropertiesSet();
+        assertFalse(leaderReplication.isReadOnly());
+        assertTrue(followerReplication.isReadOnly());
+
+        PlainTextDocument document = leader.createDocument("Test Document");
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            int version = random.nextInt(document.getVersion() + 1);
+            int length = document.getLength(version);
+            if (length > 0 && random.nextBoolean()) {
+                int position = random.nextInt(length);
+                processor.processEdit(document, EditImpl.constructDelete(version, position, 1), i % 3);
+            } else {
+                String text = Character.toString((char) ('a' + random.nextInt(26)));
+                int position = random.nextInt(length + 1);
+                processor.processEdit(document, EditImpl.constructInsert(version, position, text), i % 3);
+            }
+        }
+        document.setName("Renamed Document");
+
+        PlainTextDocument replica = awaitDocument(follower, document.getId());
+        replica.awaitVersion(document.getVersion() - 1).get(5, TimeUnit.SECONDS);
+        assertEquals(document.getText(), replica.getText());
+        assertEquals(document.getVersion(), replica.getVersion());
+        List<Change> changes = document.getChanges(document.getVersion() - 10);
+        List<Change> replicaChanges = replica.getChanges(document.getVersion() - 10);
+        assertEquals(changes.size(), replicaChanges.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(changes.get(i).getId(), replicaChanges.get(i).getId());
+            assertEquals(changes.get(i).getText(), replicaChanges.get(i).getText());
+            assertEquals(changes.get(i).getUserId(), replicaChanges.get(i).getUserId());
+        }
+        assertTrue(replica.getBaseVersion() > 0);
+
+        PlainTextDocument removed = leader.createDocument("Removed Document");
+        leader.removeDocument(removed.getId());
+        PlainTextDocument created = leader.createDocument("New Document");
+        awaitDocument(follower, created.getId());
+        assertEquals("Renamed Document", replica.getName());
+        assertNull(follower.getDocument(removed.getId()));
+        assertEquals(0, meterRegistry.get("replication.follower.gaps").counter().count(), 0);
+        assertTrue(meterRegistry.get("replication.follower.records").counter().count() > 100);
+        assertTrue(meterRegistry.get("replication.follower.lag").gauge().value() >= 0);
+    }
+
+    @Test
+    public void testGap() throws Exception {
+        HashMapStorage leader = new HashMapStorage();
+        PlainTextDocument document = leader.createDocument("Test Document");
+        processor.processEdit(document, EditImpl.constructInsert(0, 0, "Hello"), 1);
+
+        HashMapStorage follower = new HashMapStorage();
+        new Replication(leader, transport, new SimpleMeterRegistry(), "leader").afterPropertiesSet();
+        new Replication(follower, transport, meterRegistry, "follower").afterPropertiesSet();
+        processor.processEdit(document, EditImpl.constructInsert(1, 5, "!"), 1);
+        PlainTextDocument created = leader.createDocument("New Document");
+
+        awaitDocument(follower, created.getId());
+        assertNull(follower.getDocument(document.getId()));
+        assertEquals(1, meterRegistry.get("replication.follower.gaps").counter().count(), 0);
+    }
+
+    /*
+     * The replica misses the first change, so it is removed instead of serving the old text.
+     */
+    @Test
+    public void testDivergedReplica() throws Exception {
+        HashMapStorage leader = new HashMapStorage();
+        PlainTextDocument document = leader.createDocument("Test Document");
+        processor.processEdit(document, EditImpl.constructInsert(0, 0, "Hello"), 1);
+
+        HashMapStorage follower = new HashMapStorage();
+        follower.createDocument(document.getId(), "Test Document");
+        new Replication(leader, transport, new SimpleMeterRegistry(), "leader").afterPropertiesSet();
+        Replication replication = new Replication(follower, transport, meterRegistry, "follower");
+        replication.afterPropertiesSet();
+        processor.processEdit(document, EditImpl.constructInsert(1, 5, "!"), 1);
+        document.setName("Renamed Document");
+        PlainTextDocument created = leader.createDocument("New Document");
+
+        awaitDocument(follower, created.getId());
+        assertNull(follower.getDocument(document.getId()));
+        assertTrue(replication.isDiverged(document.getId()));
+        assertEquals(2, meterRegistry.get("replication.follower.gaps").counter().count(), 0);
+        assertEquals(1, meterRegistry.get("replication.follower.records").counter().count(), 0);
+        assertEquals(1, meterRegistry.get("replication.follower.diverged").gauge().value(), 0);
+    }
+
+    /*
+     * The document is evicted when the leader starts and is loaded back from its weak reference,
+     * its changes are published all the same.
+     */
+    @Test
+    public void testEvictedDocument() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(folder.getRoot().getPath(), "durable", 1 << 20);
+        CheckpointStore checkpointStore = new CheckpointStore(new File(folder.getRoot(), "checkpoints").getPath(), 0);
+        HashMapStorage leader = new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog, checkpointStore, 1);
+        PlainTextDocument document = leader.createDocument("Test Document");
+        leader.evict();
+        assertEquals(0, leader.getResidentBytes());
+
+        HashMapStorage follower = new HashMapStorage();
+        PlainTextDocument replica = follower.createDocument(document.getId(), "Test Document");
+        new Replication(leader, transport, new SimpleMeterRegistry(), "leader").afterPropertiesSet();
+        new Replication(follower, transport, meterRegistry, "follower").afterPropertiesSet();
+        assertSame(document, leader.getDocument(document.getId()));
+        processor.processEdit(document, EditImpl.constructInsert(0, 0, "Hello"), 1);
+
+        replica.awaitVersion(0).get(5, TimeUnit.SECONDS);
+        assertEquals("Hello", replica.getText());
+        assertEquals(0, meterRegistry.get("replication.follower.gaps").counter().count(), 0);
+        leader.destroy();
+        writeAheadLog.destroy();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownRole() {
+        new Replication(new HashMapStorage(), transport, meterRegistry, "observer");
+    }
+
+    private static PlainTextDocument awaitDocument(Storage storage, long id) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (storage.getDocument(id) == null) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        return storage.getDocument(id);
+    }
+
+}
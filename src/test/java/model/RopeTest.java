@@ -0,0 +1,90 @@
+package model;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RopeTest {
+
+    @Test
+    public void testInsert() {
+        TextBuffer rope = Rope.EMPTY.insert(0, "Hello!").insert(5, ", world");
+        assertEquals("Hello, world!", rope.toString());
+        assertEquals(13, rope.length());
+    }
+
+    @Test
+    public void testDelete() {
+        TextBuffer rope = Rope.of("Hello, world!").delete(5, 7);
+        assertEquals("Hello!", rope.toString());
+    }
+
+    @Test
+    public void testSubstring() {
+        TextBuffer rope = Rope.of("Hello, world!");
+        assertEquals("world", rope.substring(7, 12));
+        assertEquals("", rope.substring(3, 3));
+    }
+
+    @Test
+    public void testPersistence() {
+        TextBuffer original = Rope.of("Hello, world!");
+        original.insert(0, "Hi! ").delete(0, 10);
+        assertEquals("Hello, world!", original.toString());
+    }
+
+    @Test
+    public void testWriteTo() throws IOException {
+        String text = randomText(new Random(7), 5000);
+        TextBuffer rope = Rope.of(text).insert(100, "Hello, world!");
+        String expected = new StringBuilder(text).insert(100, "Hello, world!").toString();
+        StringWriter out = new StringWriter();
+        rope.writeTo(out, 50, expected.length() - 50);
+        assertEquals(expected.substring(50, expected.length() - 50), out.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        Rope.of("Hello").delete(3, 5);
+    }
+
+    /*
+     * Random keystrokes and block edits over a text much longer than one leaf, compared to StringBuilder.
+     */
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(42);
+        StringBuilder expected = new StringBuilder();
+        TextBuffer rope = Rope.EMPTY;
+        for (int i = 0; i < 20000; i++) {
+            int position = random.nextInt(expected.length() + 1);
+            if (expected.length() > 0 && random.nextInt(3) == 0) {
+                int count = Math.min(random.nextInt(i % 100 == 0 ? 2000 : 5) + 1, expected.length() - position);
+                expected.delete(position, position + count);
+                rope = rope.delete(position, count);
+            } else {
+                String text = randomText(random, i % 50 == 0 ? 3000 : 3);
+                expected.insert(position, text);
+                rope = rope.insert(position, text);
+            }
+        }
+        assertEquals(expected.toString(), rope.toString());
+        assertEquals(expected.length(), rope.length());
+        int from = expected.length() / 3;
+        assertEquals(expected.substring(from, from * 2), rope.substring(from, from * 2));
+    }
+
+    private static String randomText(Random random, int maxLength) {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(maxLength) + 1;
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,131 @@
+package model;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ShardedStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Processor processor = new Processor();
+
+    @Test
+    public void testRouting() throws Exception {
+        ShardedStorage storage = new ShardedStorage(4);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PlainTextDocument document = storage.createDocument("Document " + i);
+            processor.processEdit(document, EditImpl.constructInsert(0, 0, "Text " + i), 1);
+            ids.add(document.getId());
+            assertSame(document, storage.getDocument(document.getId()));
+            HashMapStorage shard = storage.getShardStorage(storage.getShard(document.getId()));
+            assertSame(document, shard.getDocument(document.getId()));
+        }
+        for (int shard = 0; shard < 4; shard++) {
+            assertFalse(storage.getShardStorage(shard).getDocumentIds().isEmpty());
+        }
+        assertEquals(ids.stream().sorted().collect(Collectors.toList()), storage.getDocumentIds());
+
+        Map<Long, String> texts = new ConcurrentHashMap<>();
+        storage.exportDocuments(snapshot -> texts.put(snapshot.getId(), snapshot.getText()));
+        assertEquals(10, texts.size());
+        assertEquals("Text 3", texts.get(ids.get(3)));
+
+        assertNotNull(storage.removeDocument(ids.get(3)));
+        assertNull(storage.getDocument(ids.get(3)));
+        assertNull(storage.removeDocument(ids.get(3)));
+        assertEquals(9, storage.getDocumentIds().size());
+        storage.destroy();
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        ShardedStorage storage = createStorage();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            PlainTextDocument document = storage.createDocument("Document " + i);
+            processor.processEdit(document, EditImpl.constructInsert(0, 0, "Text " + i), 1);
+            ids.add(document.getId());
+        }
+        storage.checkpoint();
+        processor.processEdit(storage.getDocument(ids.get(0)), EditImpl.constructInsert(1, 0, "New "), 1);
+        storage.destroy();
+
+        ShardedStorage recoveredStorage = createStorage();
+        assertEquals(ids, recoveredStorage.getDocumentIds());
+        assertEquals("New Text 0", recoveredStorage.getDocument(ids.get(0)).getText());
+        for (int i = 1; i < ids.size(); i++) {
+            assertEquals("Text " + i, recoveredStorage.getDocument(ids.get(i)).getText());
+        }
+        long newId = recoveredStorage.createDocument("New Document").getId();
+        assertFalse(ids.contains(newId));
+        recoveredStorage.destroy();
+    }
+
+    /*
+     * A directory is opened only with the number of shards it is written with.
+     */
+    @Test
+    public void testShardCountMismatch() throws Exception {
+        createStorage(3).destroy();
+        try {
+            createStorage(2);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("is written with 3 shards, storage.shards is 2"));
+        }
+        WriteAheadLog writeAheadLog = createWriteAheadLog();
+        try {
+            new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("is written with 3 shards, storage.shards is 1"));
+        }
+
+        folder.delete();
+        folder.create();
+        writeAheadLog = createWriteAheadLog();
+        new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog).createDocument("Test Document");
+        writeAheadLog.destroy();
+        assertTrue(new File(folder.getRoot(), "wal/shards").delete());
+        try {
+            createStorage(3);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("holds the files of an unsharded storage, storage.shards is 3"));
+        }
+    }
+
+    private ShardedStorage createStorage() throws Exception {
+        return createStorage(3);
+    }
+
+    private ShardedStorage createStorage(int shardCount) throws Exception {
+        return new ShardedStorage(
+                RetentionPolicy.UNLIMITED,
+                CoalescingPolicy.DISABLED,
+                createWriteAheadLog(),
+                new CheckpointStore(new File(folder.getRoot(), "checkpoints").getPath(), 0),
+                0,
+                new CompositeMeterRegistry(),
+                shardCount
+        );
+    }
+
+    private WriteAheadLog createWriteAheadLog() {
+        return new WriteAheadLog(new File(folder.getRoot(), "wal").getPath(), "durable", 1 << 20);
+    }
+
+}
@@ -0,0 +1,298 @@
+package model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Processor processor = new Processor();
+
+    @Test
+    public void testRecovery() throws Exception {
+        WriteAheadLog writeAheadLog = createWriteAheadLog("durable");
+        HashMapStorage storage = new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog);
+        PlainTextDocument document = storage.createDocument("Test Document");
+        processor.processEdit(document, EditImpl.constructInsert(0, 0, "Hello, world!"), 1);
+        processor.processEdit(document, EditImpl.constructDelete(1, "Hello".length(), ", world".length()), 2);
+        document.setName("Renamed Document");
+        PlainTextDocument removedDocument = storage.createDocument("Removed Document");
+        processor.processEdit(removedDocument, EditImpl.constructInsert(0, 0, "Bye"), 1);
+        storage.removeDocument(removedDocument.getId());
+        writeAheadLog.destroy();
+
+        writeAheadLog = createWriteAheadLog("durable");
+        HashMapStorage recoveredStorage = new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog);
+        PlainTextDocument recoveredDocument = recoveredStorage.getDocument(document.getId());
+        assertEquals("Hello!", recoveredDocument.getText());
+        assertEquals(2, recoveredDocument.getVersion());
+        assertEquals("Renamed Document", recoveredDocument.getName());
+        assertEquals(2, recoveredDocument.getChanges(0).get(1).getUserId());
+        assertNull(recoveredStorage.getDocument(removedDocument.getId()));
+        assertTrue(recoveredStorage.createDocument("New Document").getId() > removedDocument.getId());
+
+        processor.processEdit(recoveredDocument, EditImpl.constructInsert(2, 0, "Oh, "), 1);
+        writeAheadLog.destroy();
+        writeAheadLog = createWriteAheadLog("applied");
+        assertEquals(
+                "Oh, Hello!",
+                new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog).getDocument(document.getId()).getText()
+        );
+        writeAheadLog.destroy();
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        WriteAheadLog writeAheadLog = createWriteAheadLog("durable");
+        HashMapStorage storage = new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog);
+        PlainTextDocument document = storage.createDocument("Test Document");
+        processor.processEdit(document, EditImpl.constructInsert(0, 0, "Hello"), 1);
+        writeAheadLog.destroy();
+
+        File[] segments = folder.getRoot().listFiles((directory, name) -> name.endsWith(".wal"));
+        assertNotNull(segments);
+        File lastSegment = segments[0];
+        for (File segment : segments) {
+            if (segment.getName().compareTo(lastSegment.getName()) > 0) {
+                lastSegment = segment;
+            }
+        }
+        Files.write(lastSegment.toPath(), new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        writeAheadLog = createWriteAheadLog("durable");
+        PlainTextDocument recoveredDocument = new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog)
+                .getDocument(document.getId());
+        assertEquals("Hello", recoveredDocument.getText());
+        processor.processEdit(recoveredDocument, EditImpl.constructInsert(1, 5, "!"), 1);
+        writeAheadLog.destroy();
+
+        writeAheadLog = createWriteAheadLog("durable");
+        assertEquals(
+                "Hello!",
+                new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog).getDocument(document.getId()).getText()
+        );
+        writeAheadLog.destroy();
+    }
+
+    @Test
+    public void testWriteFailure() throws Exception {
+        File directory = new File(folder.getRoot(), "wal");
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory.getPath(), "durable", 1);
+        HashMapStorage storage = new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog);
+        PlainTextDocument document = storage.createDocument("Test Document");
+        for (File segment : directory.listFiles()) {
+            Files.delete(segment.toPath());
+        }
+        Files.delete(directory.toPath());
+
+        try {
+            processor.processEdit(document, EditImpl.constructInsert(0, 0, "Hello"), 1);
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof UncheckedIOException);
+        }
+        assertTrue(writeAheadLog.isFailed());
+        assertEquals(1, document.getVersion());
+        try {
+            processor.processEdit(document, EditImpl.constructInsert(1, 5, "!"), 1);
+            fail();
+        } catch (StorageUnavailableException e) {
+            assertEquals("Storage is unavailable, document " + document.getId() + " is not changed", e.getMessage());
+        }
+        assertEquals(1, document.getVersion());
+        assertEquals("Hello", document.getText());
+        try {
+            document.setName("Renamed Document");
+            fail();
+        } catch (StorageUnavailableException e) {
+            assertEquals("Test Document", document.getName());
+        }
+        assertEquals(1, writeAheadLog.getAppendedSequence());
+        writeAheadLog.destroy();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(folder.getRoot().getPath(), "durable", 4096);
+        HashMapStorage storage = new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog);
+        List<PlainTextDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            documents.add(storage.createDocument("Document " + i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            PlainTextDocument document = documents.get(i % documents.size());
+            long userId = i;
+            futures.add(executor.submit(() -> processor.processEdit(
+                    document, EditImpl.constructInsert(document.getVersion(), 0, "ab"), userId
+            )));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        writeAheadLog.destroy();
+        assertTrue(countSegments() > 1);
+
+        writeAheadLog = createWriteAheadLog("durable");
+        HashMapStorage recoveredStorage = new HashMapStorage(RetentionPolicy.UNLIMITED, writeAheadLog);
+        for (PlainTextDocument document : documents) {
+            PlainTextDocument recoveredDocument = recoveredStorage.getDocument(document.getId());
+            assertEquals(document.getVersion(), recoveredDocument.getVersion());
+            assertEquals(document.getText(), recoveredDocument.getText());
+        }
+        writeAheadLog.destroy();
+    }
+
+    @Test
+    public void testCheckpointRecovery() throws Exception {
+        RetentionPolicy retentionPolicy = new RetentionPolicy(16, 0);
+        WriteAheadLog writeAheadLog = new WriteAheadLog(folder.getRoot().getPath(), "durable", 1024);
+        HashMapStorage storage = new HashMapStorage(retentionPolicy, writeAheadLog, createCheckpointStore());
+        PlainTextDocument document = storage.createDocument("Test Document");
+        for (int i = 0; i < 100; i++) {
+            processor.processEdit(document, EditImpl.constructInsert(i, i, "a"), i);
+        }
+        PlainTextDocument removedDocument = storage.createDocument("Removed Document");
+        processor.processEdit(removedDocument, EditImpl.constructInsert(0, 0, "Bye"), 1);
+        assertTrue(countSegments() > 1);
+        storage.checkpoint();
+        assertEquals(1, countSegments());
+
+        storage.removeDocument(removedDocument.getId());
+        for (int i = 100; i < 110; i++) {
+            processor.processEdit(document, EditImpl.constructInsert(i, 0, "b"), i);
+        }
+        document.setName("Renamed Document");
+        storage.checkpoint();
+        processor.processEdit(document, EditImpl.constructDelete(110, 0, 5), 1);
+        storage.destroy();
+        writeAheadLog.destroy();
+
+        writeAheadLog = new WriteAheadLog(folder.getRoot().getPath(), "durable", 1024);
+        HashMapStorage recoveredStorage = new HashMapStorage(retentionPolicy, writeAheadLog, createCheckpointStore());
+        PlainTextDocument recoveredDocument = recoveredStorage.getDocument(document.getId());
+        assertEquals(document.getText(), recoveredDocument.getText());
+        assertEquals(document.getVersion(), recoveredDocument.getVersion());
+        assertEquals(document.getBaseVersion(), recoveredDocument.getBaseVersion());
+        assertEquals("Renamed Document", recoveredDocument.getName());
+        List<Change> changes = document.getChanges(document.getBaseVersion());
+        List<Change> recoveredChanges = recoveredDocument.getChanges(document.getBaseVersion());
+        assertEquals(changes.size(), recoveredChanges.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(changes.get(i).getId(), recoveredChanges.get(i).getId());
+            assertEquals(changes.get(i).getStartPosition(), recoveredChanges.get(i).getStartPosition());
+            assertEquals(changes.get(i).getText(), recoveredChanges.get(i).getText());
+            assertEquals(changes.get(i).getUserId(), recoveredChanges.get(i).getUserId());
+        }
+        assertEquals(document.createResync().getText(), recoveredDocument.createResync().getText());
+        assertNull(recoveredStorage.getDocument(removedDocument.getId()));
+        assertTrue(recoveredStorage.createDocument("New Document").getId() > removedDocument.getId());
+
+        try {
+            processor.processEdit(recoveredDocument, EditImpl.constructInsert(1, 0, "c"), 1);
+            fail();
+        } catch (EditValidationException e) {
+            assertEquals("Document version is no longer retained", e.getMessage());
+        }
+        document.setStorageListener(StorageListener.NONE);
+        int fromVersion = recoveredDocument.getVersion() - 2;
+        processor.processEdit(document, EditImpl.constructInsert(fromVersion, 3, "c"), 1);
+        processor.processEdit(recoveredDocument, EditImpl.constructInsert(fromVersion, 3, "c"), 1);
+        assertEquals(document.getText(), recoveredDocument.getText());
+        recoveredStorage.destroy();
+        writeAheadLog.destroy();
+    }
+
+    @Test
+    public void testTiering() throws Exception {
+        long maxResidentBytes = 700_000;
+        WriteAheadLog writeAheadLog = createWriteAheadLog("durable");
+        HashMapStorage storage = new HashMapStorage(
+                RetentionPolicy.UNLIMITED, writeAheadLog, createCheckpointStore(), maxResidentBytes
+        );
+        List<Long> ids = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PlainTextDocument document = storage.createDocument("Document " + i);
+            char[] text = new char[50_000];
+            Arrays.fill(text, (char) ('a' + i));
+            processor.processEdit(document, EditImpl.constructInsert(0, 0, new String(text)), 1);
+            ids.add(document.getId());
+            texts.add(document.getText());
+        }
+        storage.evict();
+        assertTrue(storage.getResidentBytes() <= maxResidentBytes);
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(texts.get(i), storage.getDocument(ids.get(i)).getText());
+        }
+
+        PlainTextDocument document = storage.getDocument(ids.get(0));
+        for (int i = 1; i < ids.size(); i++) {
+            storage.getDocument(ids.get(i));
+        }
+        storage.evict();
+        assertTrue(storage.getResidentBytes() <= maxResidentBytes);
+        processor.processEdit(document, EditImpl.constructInsert(1, 0, "Hello"), 1);
+        assertSame(document, storage.getDocument(ids.get(0)));
+
+        storage.evict();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<PlainTextDocument>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> storage.getDocument(ids.get(5))));
+        }
+        for (Future<PlainTextDocument> future : futures) {
+            assertSame(futures.get(0).get(), future.get());
+        }
+        executor.shutdown();
+        storage.destroy();
+        writeAheadLog.destroy();
+
+        writeAheadLog = createWriteAheadLog("durable");
+        HashMapStorage recoveredStorage = new HashMapStorage(
+                RetentionPolicy.UNLIMITED, writeAheadLog, createCheckpointStore(), maxResidentBytes
+        );
+        assertTrue(recoveredStorage.getResidentBytes() <= maxResidentBytes);
+        assertEquals("Hello" + texts.get(0), recoveredStorage.getDocument(ids.get(0)).getText());
+        assertEquals(2, recoveredStorage.getDocument(ids.get(0)).getVersion());
+        for (int i = 1; i < ids.size(); i++) {
+            assertEquals(texts.get(i), recoveredStorage.getDocument(ids.get(i)).getText());
+        }
+        recoveredStorage.destroy();
+        writeAheadLog.destroy();
+    }
+
+    private CheckpointStore createCheckpointStore() {
+        return new CheckpointStore(new File(folder.getRoot(), "checkpoints").getPath(), 0);
+    }
+
+    private int countSegments() {
+        File[] segments = folder.getRoot().listFiles((directory, name) -> name.endsWith(".wal"));
+        assertNotNull(segments);
+        return segments.length;
+    }
+
+    private WriteAheadLog createWriteAheadLog(String ack) {
+        return new WriteAheadLog(folder.getRoot().getPath(), ack, 1 << 20);
+    }
+
+}
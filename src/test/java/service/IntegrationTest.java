@@ -12,8 +12,16 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -28,6 +36,16 @@ public class IntegrationTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    /*
+     * Edits are processed asynchronously, the response is dispatched when the edit is processed.
+     */
+    private ResultActions performEdit(RequestBuilder edit) throws Exception {
+        MvcResult result = this.mvc.perform(edit)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return this.mvc.perform(asyncDispatch(result));
+    }
+
     @Test
     public void getDocumentTest() throws Exception {
         String documentJson = this.mvc.perform(post("/documents").param("name", "Demo"))
@@ -38,7 +56,7 @@ public class IntegrationTest {
         JsonNode documentNode = objectMapper.readTree(documentJson);
         int documentId = documentNode.get("id").asInt();
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -47,7 +65,7 @@ public class IntegrationTest {
                 .andExpect(status().isOk())
                 .andDo(MockMvcResultHandlers.print());
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -76,7 +94,7 @@ public class IntegrationTest {
         JsonNode documentNode = objectMapper.readTree(documentJson);
         int documentId = documentNode.get("id").asInt();
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -85,7 +103,7 @@ public class IntegrationTest {
                 .andExpect(status().isOk())
                 .andDo(MockMvcResultHandlers.print());
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -147,6 +165,51 @@ public class IntegrationTest {
                 .andDo(MockMvcResultHandlers.print());
     }
 
+    @Test
+    public void getDocumentTextTest() throws Exception {
+        String documentJson = this.mvc.perform(post("/documents").param("name", "Demo"))
+                .andExpect(status().is2xxSuccessful())
+                .andReturn().getResponse().getContentAsString();
+        int documentId = objectMapper.readTree(documentJson).get("id").asInt();
+
+        performEdit(
+                put("/documents/" + documentId + "/changes")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(
+                                EditImpl.constructInsert(0, 0, "Hi, wörld!")
+                        )))
+                .andExpect(status().isOk());
+
+        this.mvc.perform(get("/documents/" + documentId + "/text"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/plain;charset=UTF-8"))
+                .andExpect(header().string("X-Document-Version", "1"))
+                .andExpect(content().string("Hi, wörld!"));
+        this.mvc.perform(get("/documents/" + documentId + "/text").param("from", "4").param("to", "9"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Document-Version", "1"))
+                .andExpect(content().string("wörld"));
+        this.mvc.perform(get("/documents/" + documentId + "/text").param("from", "4").param("to", "11"))
+                .andExpect(status().isBadRequest());
+        this.mvc.perform(get("/documents/" + (documentId + 1000) + "/text"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void acknowledgeVersionTest() throws Exception {
+        String documentJson = this.mvc.perform(post("/documents").param("name", "New Document"))
+                .andExpect(status().is2xxSuccessful())
+                .andReturn().getResponse().getContentAsString();
+        int documentId = objectMapper.readTree(documentJson).get("id").asInt();
+
+        this.mvc.perform(post("/documents/" + documentId + "/ack").param("version", "0"))
+                .andExpect(status().isNoContent());
+        this.mvc.perform(post("/documents/" + documentId + "/ack").param("version", "1"))
+                .andExpect(status().isBadRequest());
+        this.mvc.perform(post("/documents/" + (documentId + 1000) + "/ack").param("version", "0"))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     public void createAndEditDocumentTest1() throws Exception {
         String documentJson = this.mvc.perform(post("/documents").param("name", "New Document"))
@@ -156,7 +219,7 @@ public class IntegrationTest {
         JsonNode documentNode = objectMapper.readTree(documentJson);
         int documentId = documentNode.get("id").asInt();
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -189,7 +252,7 @@ public class IntegrationTest {
         JsonNode documentNode = objectMapper.readTree(documentJson);
         int documentId = documentNode.get("id").asInt();
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -198,7 +261,7 @@ public class IntegrationTest {
                 .andExpect(status().isOk())
                 .andDo(MockMvcResultHandlers.print());
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -207,7 +270,7 @@ public class IntegrationTest {
                 .andExpect(status().isOk())
                 .andDo(MockMvcResultHandlers.print());
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -216,7 +279,7 @@ public class IntegrationTest {
                 .andExpect(status().isOk())
                 .andDo(MockMvcResultHandlers.print());
 
-        this.mvc.perform(
+        performEdit(
                 put("/documents/" + documentId + "/changes")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(
@@ -233,4 +296,125 @@ public class IntegrationTest {
                 .andDo(MockMvcResultHandlers.print());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void batchEditDocumentTest() throws Exception {
+        String documentJson = this.mvc.perform(post("/documents").param("name", "New Document"))
+                .andExpect(status().is2xxSuccessful())
+                .andDo(MockMvcResultHandlers.print())
+                .andReturn().getResponse().getContentAsString();
+        JsonNode documentNode = objectMapper.readTree(documentJson);
+        int documentId = documentNode.get("id").asInt();
+
+        performEdit(
+                put("/documents/" + documentId + "/changes/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Arrays.asList(
+                                EditImpl.constructInsert(0, 0, "This is my document"),
+                                EditImpl.constructDelete(0, "This is ".length(), "my".length()),
+                                EditImpl.constructInsert(0, "This is ".length(), "our")
+                        ))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[2].id").value(3))
+                .andDo(MockMvcResultHandlers.print());
+
+        this.mvc.perform(get("/documents/" + documentId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(3))
+                .andExpect(jsonPath("$.text").value("This is our document"))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    public void pollDocumentChangesTest() throws Exception {
+        String documentJson = this.mvc.perform(post("/documents").param("name", "Demo"))
+                .andExpect(status().is2xxSuccessful())
+                .andDo(MockMvcResultHandlers.print())
+                .andReturn().getResponse().getContentAsString();
+        JsonNode documentNode = objectMapper.readTree(documentJson);
+        int documentId = documentNode.get("id").asInt();
+
+        MvcResult poll = this.mvc.perform(
+                get("/documents/" + documentId + "/changes/poll").param("fromVersion", "0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        performEdit(
+                put("/documents/" + documentId + "/changes")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(
+                                EditImpl.constructInsert(0, 0, "Hi, ")
+                        )))
+                .andExpect(status().isOk())
+                .andDo(MockMvcResultHandlers.print());
+
+        this.mvc.perform(asyncDispatch(poll))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].text").value("Hi, "))
+                .andDo(MockMvcResultHandlers.print());
+
+        MvcResult negativeTimeout = this.mvc.perform(
+                get("/documents/" + documentId + "/changes/poll").param("fromVersion", "1").param("timeout", "-1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mvc.perform(asyncDispatch(negativeTimeout))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void binaryEditDocumentTest() throws Exception {
+        String documentJson = this.mvc.perform(post("/documents").param("name", "Demo"))
+                .andExpect(status().is2xxSuccessful())
+                .andReturn().getResponse().getContentAsString();
+        JsonNode documentNode = objectMapper.readTree(documentJson);
+        int documentId = documentNode.get("id").asInt();
+
+        ByteArrayOutputStream edits = new ByteArrayOutputStream();
+        BinaryWireFormat.writeEdits(Arrays.asList(
+                EditImpl.constructInsert(0, 0, "Hi, world!"),
+                EditImpl.constructDelete(0, 0, "Hi".length())
+        ), edits);
+        byte[] changes = performEdit(
+                put("/documents/" + documentId + "/changes/batch")
+                        .contentType(BinaryWireFormat.MEDIA_TYPE)
+                        .accept(BinaryWireFormat.MEDIA_TYPE)
+                        .content(edits.toByteArray()))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(BinaryWireFormat.MEDIA_TYPE))
+                .andReturn().getResponse().getContentAsByteArray();
+        BinaryWireFormat.Reader reader = new BinaryWireFormat.Reader(new ByteArrayInputStream(changes));
+        reader.expectTag(BinaryWireFormat.CHANGES);
+        assertEquals(2, reader.readVarInt());
+
+        ByteArrayOutputStream edit = new ByteArrayOutputStream();
+        BinaryWireFormat.write(EditImpl.constructInsert(2, 0, "Hello"), edit);
+        performEdit(
+                put("/documents/" + documentId + "/changes")
+                        .contentType(BinaryWireFormat.MEDIA_TYPE)
+                        .content(edit.toByteArray()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].text").value("Hello"));
+
+        byte[] document = this.mvc.perform(get("/documents/" + documentId).accept(BinaryWireFormat.MEDIA_TYPE))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        reader = new BinaryWireFormat.Reader(new ByteArrayInputStream(document));
+        reader.expectTag(BinaryWireFormat.DOCUMENT);
+        assertEquals(documentId, reader.readVarLong());
+        assertEquals(3, reader.readVarInt());
+        assertEquals(0, reader.readVarInt());
+        assertEquals("Demo", reader.readString());
+        assertEquals("Hello, world!", reader.readString());
+
+        byte[] error = this.mvc.perform(
+                get("/documents/" + documentId + "/changes")
+                        .param("fromVersion", "10")
+                        .accept(BinaryWireFormat.MEDIA_TYPE))
+                .andExpect(status().isBadRequest())
+                .andReturn().getResponse().getContentAsByteArray();
+        reader = new BinaryWireFormat.Reader(new ByteArrayInputStream(error));
+        reader.expectTag(BinaryWireFormat.ERROR);
+        assertEquals(400, reader.readVarInt());
+    }
+
+}
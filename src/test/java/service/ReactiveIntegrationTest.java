@@ -0,0 +1,133 @@
+package service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import model.EditImpl;
+import model.PlainTextDocument;
+import model.Storage;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("reactive")
+public class ReactiveIntegrationTest {
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private Storage storage;
+
+    @Test
+    public void editDocumentTest() {
+        JsonNode document = client.post().uri("/documents?name=Demo")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(JsonNode.class).returnResult().getResponseBody();
+        long documentId = document.get("id").asLong();
+
+        client.put().uri("/documents/{id}/changes", documentId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(EditImpl.constructInsert(0, 0, "Hi, "))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$[0].text").isEqualTo("Hi, ");
+        client.put().uri("/documents/{id}/changes", documentId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(EditImpl.constructInsert(0, 0, "world!"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.length()").isEqualTo(2);
+
+        client.get().uri("/documents/{id}", documentId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.text").isEqualTo("Hi, world!")
+                .jsonPath("$.version").isEqualTo(2);
+        client.get().uri("/documents/{id}/changes?fromVersion=1", documentId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$[0].text").isEqualTo("world!");
+        client.put().uri("/documents/{id}/changes", documentId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(EditImpl.constructDelete(2, 0, 100))
+                .exchange()
+                .expectStatus().isBadRequest();
+        client.get().uri("/documents/{id}", documentId + 1000)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    /*
+     * The text is longer than one encoded part, so it is written in a few parts.
+     */
+    @Test
+    public void getDocumentTextTest() {
+        PlainTextDocument document = storage.createDocument("Demo");
+        String text = String.join("", Collections.nCopies(2000, "Hello, wörld! "));
+        client.put().uri("/documents/{id}/changes", document.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(EditImpl.constructInsert(0, 0, text))
+                .exchange()
+                .expectStatus().isOk();
+
+        client.get().uri("/documents/{id}/text", document.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Document-Version", "1")
+                .expectBody(String.class).isEqualTo(text);
+        client.get().uri("/documents/{id}/text?from=7&to=12", document.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("wörld");
+        client.get().uri("/documents/{id}/text?from=-1", document.getId())
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    /*
+     * The stream starts at version 1 and gets the later changes as they are made.
+     */
+    @Test
+    public void streamDocumentChangesTest() throws Exception {
+        PlainTextDocument document = storage.createDocument("Demo");
+        client.put().uri("/documents/{id}/changes", document.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(EditImpl.constructInsert(0, 0, "a"))
+                .exchange()
+                .expectStatus().isOk();
+
+        Flux<JsonNode> stream = client.get()
+                .uri("/documents/{id}/changes/stream?fromVersion=0", document.getId())
+                .accept(MediaType.APPLICATION_STREAM_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(JsonNode.class).getResponseBody();
+        for (String text : new String[]{"b", "c"}) {
+            client.put().uri("/documents/{id}/changes", document.getId())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .syncBody(EditImpl.constructInsert(document.getVersion(), 0, text))
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+        List<JsonNode> changes = stream.take(3).collectList().block(Duration.ofSeconds(10));
+        assertEquals(3, changes.size());
+        assertEquals("a", changes.get(0).get("text").asText());
+        assertEquals(3, changes.get(2).get("id").asInt());
+    }
+
+}
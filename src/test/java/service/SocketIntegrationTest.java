@@ -0,0 +1,103 @@
+package service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.EditImpl;
+import model.HashMapStorage;
+import model.PlainTextDocument;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class SocketIntegrationTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private HashMapStorage storage;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /*
+     * Two sessions of the same document: the edit of the first one is pushed to both of them
+     * and acknowledged to it after the changes.
+     */
+    @Test
+    public void editAndFanOutTest() throws Exception {
+        PlainTextDocument document = storage.createDocument("Demo");
+        BlockingQueue<JsonNode> writerMessages = new LinkedBlockingQueue<>();
+        BlockingQueue<JsonNode> readerMessages = new LinkedBlockingQueue<>();
+        WebSocketSession writer = connect(document, writerMessages);
+        connect(document, readerMessages);
+
+        writer.sendMessage(new TextMessage(objectMapper.writeValueAsString(EditImpl.constructInsert(0, 0, "Hi, "))));
+
+        JsonNode changes = poll(readerMessages);
+        assertEquals("changes", changes.get("type").asText());
+        assertEquals("Hi, ", changes.get("changes").get(0).get("text").asText());
+
+        JsonNode writerChanges = poll(writerMessages);
+        assertEquals("changes", writerChanges.get("type").asText());
+        assertEquals(1, writerChanges.get("changes").get(0).get("id").asInt());
+        JsonNode ack = poll(writerMessages);
+        assertEquals("ack", ack.get("type").asText());
+        assertEquals(1, ack.get("version").asInt());
+    }
+
+    @Test
+    public void catchUpTest() throws Exception {
+        PlainTextDocument document = storage.createDocument("Demo");
+        BlockingQueue<JsonNode> writerMessages = new LinkedBlockingQueue<>();
+        WebSocketSession writer = connect(document, writerMessages);
+        writer.sendMessage(new TextMessage(objectMapper.writeValueAsString(EditImpl.constructInsert(0, 0, "Hi"))));
+        poll(writerMessages);
+        poll(writerMessages);
+
+        BlockingQueue<JsonNode> readerMessages = new LinkedBlockingQueue<>();
+        connect(document, readerMessages, 0);
+        JsonNode changes = poll(readerMessages);
+        assertEquals("Hi", changes.get("changes").get(0).get("text").asText());
+    }
+
+    private WebSocketSession connect(PlainTextDocument document, BlockingQueue<JsonNode> messages) throws Exception {
+        return connect(document, messages, document.getVersion());
+    }
+
+    private WebSocketSession connect(
+            PlainTextDocument document, BlockingQueue<JsonNode> messages, int fromVersion
+    ) throws Exception {
+        String uri = "ws://localhost:" + port + "/documents/" + document.getId() + "/socket?fromVersion=" + fromVersion;
+        return new StandardWebSocketClient().doHandshake(new BinaryWebSocketHandler() {
+            @Override
+            protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+                messages.add(objectMapper.readTree(message.getPayload().array()));
+            }
+        }, uri).get(5, TimeUnit.SECONDS);
+    }
+
+    private static JsonNode poll(BlockingQueue<JsonNode> messages) throws InterruptedException {
+        JsonNode message = messages.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message);
+        return message;
+    }
+
+}